@@ -0,0 +1,98 @@
+package file_structure;
+
+// AsyncFileSystem.java - Non-blocking front end returning CompletableFutures
+import java.lang.reflect.Method;
+import java.util.concurrent.*;
+import java.util.concurrent.locks.Lock;
+import java.util.function.Supplier;
+
+public class AsyncFileSystem implements AutoCloseable {
+    // Metadata work runs under the FileSystem's lock; block reads are
+    // only queued there and complete through the I/O scheduler after the
+    // lock is released, so many concurrent reads get merged into few
+    // device operations. Direct FileSystem calls made from other threads
+    // while this is in use must hold the same lock (FileSystem.getLock()).
+    private FileSystem fs;
+    private ExecutorService executor;
+
+    public AsyncFileSystem(FileSystem fs) {
+        this(fs, newTaskExecutor());
+    }
+
+    public AsyncFileSystem(FileSystem fs, ExecutorService executor) {
+        this.fs = fs;
+        this.executor = executor;
+    }
+
+    public CompletableFuture<byte[]> read(String path) {
+        return submit(() -> fs.startRead(path))
+                .thenCompose(pending -> pending);
+    }
+
+    public CompletableFuture<Boolean> write(String path, byte[] data) {
+        return submit(() -> fs.writeFile(path, data));
+    }
+
+    public CompletableFuture<Boolean> createFile(String path, int uid,
+            int gid) {
+        return submit(() -> fs.createFile(path, uid, gid));
+    }
+
+    public CompletableFuture<Boolean> createDirectory(String path, int uid,
+            int gid) {
+        return submit(() -> fs.createDirectory(path, uid, gid));
+    }
+
+    public CompletableFuture<Boolean> delete(String path) {
+        return submit(() -> fs.deleteFile(path));
+    }
+
+    public CompletableFuture<Boolean> rename(String oldPath, String newPath) {
+        return submit(() -> fs.rename(oldPath, newPath));
+    }
+
+    public CompletableFuture<Boolean> link(String existingPath,
+            String newPath) {
+        return submit(() -> fs.link(existingPath, newPath));
+    }
+
+    // Helper: Run op on the executor under the file system lock
+    private <T> CompletableFuture<T> submit(Supplier<T> op) {
+        return CompletableFuture.supplyAsync(() -> {
+            Lock lock = fs.getLock();
+            lock.lock();
+            try {
+                return op.get();
+            } finally {
+                lock.unlock();
+            }
+        }, executor);
+    }
+
+    public FileSystem getFileSystem() {
+        return fs;
+    }
+
+    @Override
+    public void close() {
+        executor.shutdown();
+    }
+
+    // One virtual thread per task when the runtime has them (Java 21+),
+    // otherwise a fixed pool of daemon threads. Tasks mostly wait for the
+    // file system lock, so more platform threads than cores buy nothing.
+    static ExecutorService newTaskExecutor() {
+        try {
+            Method factory = Executors.class.getMethod(
+                    "newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) factory.invoke(null);
+        } catch (ReflectiveOperationException e) {
+            int threads = Runtime.getRuntime().availableProcessors();
+            return Executors.newFixedThreadPool(threads, r -> {
+                Thread t = new Thread(r, "async-fs");
+                t.setDaemon(true);
+                return t;
+            });
+        }
+    }
+}
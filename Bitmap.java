@@ -1,6 +1,7 @@
 package file_structure;
 
 // Bitmap.java - Track free/used blocks and inodes
+import java.util.Arrays;
 import java.util.BitSet;
 
 public class Bitmap {
@@ -24,6 +25,23 @@ public class Bitmap {
         return -1; // No free bits
     }
 
+    // Allocate a run of count contiguous free bits, returns the first index
+    public int allocateRun(int count) {
+        if (count <= 0) {
+            return -1;
+        }
+        int start = bits.nextClearBit(0);
+        while (start + count <= size) {
+            int nextUsed = bits.nextSetBit(start);
+            if (nextUsed < 0 || nextUsed >= start + count) {
+                bits.set(start, start + count);
+                return start;
+            }
+            start = bits.nextClearBit(nextUsed);
+        }
+        return -1; // No run long enough
+    }
+
     // Free a specific bit
     public void free(int index) {
         if (index >= 0 && index < size) {
@@ -41,6 +59,22 @@ public class Bitmap {
         return size - bits.cardinality();
     }
 
+    // Count allocated bits in [from, to)
+    public int countAllocated(int from, int to) {
+        return bits.get(from, Math.min(to, size)).cardinality();
+    }
+
+    // Serialize to ceil(size / 8) bytes
+    public byte[] toByteArray() {
+        return Arrays.copyOf(bits.toByteArray(), (size + 7) / 8);
+    }
+
+    public static Bitmap fromByteArray(byte[] data, int size) {
+        Bitmap bitmap = new Bitmap(size);
+        bitmap.bits = BitSet.valueOf(data);
+        return bitmap;
+    }
+
     // Reserve a specific bit (for system use)
     public void reserve(int index) {
         if (index >= 0 && index < size) {
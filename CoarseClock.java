@@ -0,0 +1,40 @@
+package file_structure;
+
+// CoarseClock.java - Millisecond clock refreshed by a background ticker
+import java.io.Closeable;
+import java.util.concurrent.*;
+import java.util.function.LongSupplier;
+
+public class CoarseClock implements LongSupplier, Closeable {
+    // Reading the time is a volatile load instead of a clock call; the
+    // price is that values can lag by up to one resolution step
+    private volatile long now;
+    private ScheduledExecutorService ticker;
+
+    public CoarseClock(long resolutionMillis) {
+        this.now = System.currentTimeMillis();
+        this.ticker = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "coarse-clock");
+            t.setDaemon(true);
+            return t;
+        });
+        ticker.scheduleAtFixedRate(() -> now = System.currentTimeMillis(),
+                resolutionMillis, resolutionMillis, TimeUnit.MILLISECONDS);
+    }
+
+    // Run task every periodMillis on the ticker thread
+    public void schedule(Runnable task, long periodMillis) {
+        ticker.scheduleAtFixedRate(task, periodMillis, periodMillis,
+                TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public long getAsLong() {
+        return now;
+    }
+
+    @Override
+    public void close() {
+        ticker.shutdownNow();
+    }
+}
@@ -0,0 +1,339 @@
+package file_structure;
+
+// Defragmenter.java - Online defragmenter and free-space compactor
+import java.util.*;
+import java.util.concurrent.locks.Lock;
+
+public class Defragmenter {
+    // Default copy budget; the file system lock is also released between
+    // files so foreground operations can run in between
+    public static final long DEFAULT_BLOCKS_PER_SECOND = 4096;
+
+    // Compaction stops early once a pass moves nothing
+    private static final int MAX_PASSES = 8;
+
+    public static class FragmentationStats {
+        private int files;
+        private int fragmentedFiles;
+        private int extents;
+        private long freeBlocks;
+        private int freeExtents;
+        private int largestFreeExtent;
+        private Map<Integer, Integer> extentsPerInode = new TreeMap<>();
+
+        public int getFiles() {
+            return files;
+        }
+
+        public int getFragmentedFiles() {
+            return fragmentedFiles;
+        }
+
+        // Extent count of every file that has more than one
+        public Map<Integer, Integer> getExtentsPerInode() {
+            return Collections.unmodifiableMap(extentsPerInode);
+        }
+
+        public int getFreeExtents() {
+            return freeExtents;
+        }
+
+        public int getLargestFreeExtent() {
+            return largestFreeExtent;
+        }
+
+        // 0 when all free space is one run, approaching 1 as it splinters
+        public double getFreeSpaceFragmentation() {
+            return freeBlocks == 0 ? 0
+                    : 1.0 - (double) largestFreeExtent / freeBlocks;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(
+                    "%d/%d files fragmented (%d extents), " +
+                            "%d free blocks in %d extents, largest %d " +
+                            "(free space fragmentation %.2f)",
+                    fragmentedFiles, files, extents, freeBlocks, freeExtents,
+                    largestFreeExtent, getFreeSpaceFragmentation());
+        }
+    }
+
+    public static class Report {
+        private FragmentationStats before;
+        private FragmentationStats after;
+        private int filesMoved;
+        private long blocksMoved;
+
+        public FragmentationStats getBefore() {
+            return before;
+        }
+
+        public FragmentationStats getAfter() {
+            return after;
+        }
+
+        public int getFilesMoved() {
+            return filesMoved;
+        }
+
+        public long getBlocksMoved() {
+            return blocksMoved;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("Defrag: moved %d files (%d blocks)%n" +
+                    "  before: %s%n  after:  %s",
+                    filesMoved, blocksMoved, before, after);
+        }
+    }
+
+    private FileSystem fs;
+    private long maxBlocksPerSecond;
+
+    public Defragmenter(FileSystem fs) {
+        this.fs = fs;
+        this.maxBlocksPerSecond = DEFAULT_BLOCKS_PER_SECOND;
+    }
+
+    // 0 disables throttling
+    public void setMaxBlocksPerSecond(long maxBlocksPerSecond) {
+        this.maxBlocksPerSecond = maxBlocksPerSecond;
+    }
+
+    // Number of physically contiguous runs in a file's mapping
+    public static int countExtents(Inode inode) {
+        int extents = 0;
+        int previous = -2;
+        for (int i = 0; i < 12; i++) {
+            int blockNum = inode.getBlockNumber(i);
+            if (blockNum < 0) {
+                continue;
+            }
+            if (blockNum != previous + 1) {
+                extents++;
+            }
+            previous = blockNum;
+        }
+        return extents;
+    }
+
+    public FragmentationStats analyze() {
+        Lock lock = fs.getLock();
+        lock.lock();
+        try {
+            FragmentationStats stats = new FragmentationStats();
+            for (int inodeNum : fileInodes()) {
+                int extents = countExtents(fs.loadInode(inodeNum));
+                stats.files++;
+                stats.extents += extents;
+                if (extents > 1) {
+                    stats.fragmentedFiles++;
+                    stats.extentsPerInode.put(inodeNum, extents);
+                }
+            }
+
+            Bitmap blocks = fs.getBlockBitmap();
+            int total = (int) fs.getSuperblock().getTotalBlocks();
+            int run = 0;
+            for (int blockNum = 0; blockNum <= total; blockNum++) {
+                if (blockNum < total && !blocks.isAllocated(blockNum)) {
+                    run++;
+                    stats.freeBlocks++;
+                } else if (run > 0) {
+                    stats.freeExtents++;
+                    stats.largestFreeExtent =
+                            Math.max(stats.largestFreeExtent, run);
+                    run = 0;
+                }
+            }
+            return stats;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Move every file down into the lowest run of blocks that are free or
+    // already its own. Fragmented files become contiguous; whole files
+    // slide into the holes below them, and since files are visited from
+    // the start of the disk, the holes move up until free space is one
+    // run at the end.
+    public Report run() {
+        Report report = new Report();
+        report.before = analyze();
+        long started = System.nanoTime();
+
+        for (int pass = 0; pass < MAX_PASSES; pass++) {
+            boolean moved = false;
+            for (int inodeNum : filesByFirstBlock()) {
+                int count = relocate(inodeNum);
+                if (count > 0) {
+                    moved = true;
+                    report.filesMoved++;
+                    report.blocksMoved += count;
+                    throttle(report.blocksMoved, started);
+                }
+            }
+            if (!moved) {
+                break;
+            }
+        }
+
+        report.after = analyze();
+        return report;
+    }
+
+    // Relocate one file if that improves it; returns the blocks moved
+    private int relocate(int inodeNum) {
+        Lock lock = fs.getLock();
+        lock.lock();
+        try {
+            Inode inode = fs.loadInode(inodeNum);
+            if (inode == null || fs.hasBufferedData(inodeNum)) {
+                return 0; // Deleted meanwhile, or not allocated yet
+            }
+
+            List<Integer> blocks = new ArrayList<>();
+            for (int i = 0; i < 12; i++) {
+                if (inode.getBlockNumber(i) >= 0) {
+                    blocks.add(inode.getBlockNumber(i));
+                }
+            }
+            if (blocks.isEmpty()) {
+                return 0;
+            }
+
+            int start = findTarget(blocks);
+            if (start < 0) {
+                return 0; // No run big enough yet
+            }
+            // A contiguous file only moves down, and only if that opens no
+            // new hole; sliding into the hole below it just moves the hole
+            // up, where the next file picks it up
+            if (countExtents(inode) == 1 && (start >= firstBlock(inode)
+                    || freeExtentDelta(blocks, start) > 0)) {
+                return 0;
+            }
+
+            return fs.moveBlocks(inode, start) ? blocks.size() : 0;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Lowest run of blocks.size() blocks that are each free or in blocks
+    private int findTarget(List<Integer> blocks) {
+        Bitmap bitmap = fs.getBlockBitmap();
+        Set<Integer> owned = new HashSet<>(blocks);
+        int total = (int) fs.getSuperblock().getTotalBlocks();
+        int run = 0;
+        for (int blockNum = 0; blockNum < total; blockNum++) {
+            if (!bitmap.isAllocated(blockNum) || owned.contains(blockNum)) {
+                if (++run == blocks.size()) {
+                    return blockNum - run + 1;
+                }
+            } else {
+                run = 0;
+            }
+        }
+        return -1;
+    }
+
+    // Change in the number of free extents if the file moved to start:
+    // claiming a block splits or shrinks the extent around it, freeing one
+    // merges or extends its neighbours
+    private int freeExtentDelta(List<Integer> blocks, int start) {
+        Map<Integer, Boolean> changed = new HashMap<>();
+        int end = start + blocks.size();
+        int delta = 0;
+        for (int blockNum = start; blockNum < end; blockNum++) {
+            if (!blocks.contains(blockNum)) {
+                delta += freeNeighbours(blockNum, changed) - 1;
+                changed.put(blockNum, false);
+            }
+        }
+        for (int blockNum : blocks) {
+            if (blockNum < start || blockNum >= end) {
+                delta += 1 - freeNeighbours(blockNum, changed);
+                changed.put(blockNum, true);
+            }
+        }
+        return delta;
+    }
+
+    private int freeNeighbours(int blockNum, Map<Integer, Boolean> changed) {
+        return (isFree(blockNum - 1, changed) ? 1 : 0)
+                + (isFree(blockNum + 1, changed) ? 1 : 0);
+    }
+
+    private boolean isFree(int blockNum, Map<Integer, Boolean> changed) {
+        if (blockNum < 0 || blockNum >= fs.getSuperblock().getTotalBlocks()) {
+            return false;
+        }
+        Boolean free = changed.get(blockNum);
+        return free != null ? free : !fs.getBlockBitmap().isAllocated(blockNum);
+    }
+
+    // Sleep as needed to stay under the block budget; runs without the lock
+    private void throttle(long blocksMoved, long started) {
+        if (maxBlocksPerSecond <= 0) {
+            return;
+        }
+        long dueMillis = blocksMoved * 1000 / maxBlocksPerSecond;
+        long elapsedMillis = (System.nanoTime() - started) / 1_000_000;
+        if (dueMillis > elapsedMillis) {
+            try {
+                Thread.sleep(dueMillis - elapsedMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private List<Integer> filesByFirstBlock() {
+        Lock lock = fs.getLock();
+        lock.lock();
+        try {
+            List<Integer> files = fileInodes();
+            Map<Integer, Integer> first = new HashMap<>();
+            for (int inodeNum : files) {
+                first.put(inodeNum, firstBlock(fs.loadInode(inodeNum)));
+            }
+            files.sort(Comparator.comparing(first::get));
+            return files;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Regular files that own at least one block
+    private List<Integer> fileInodes() {
+        Bitmap inodes = fs.getInodeBitmap();
+        int total = (int) fs.getSuperblock().getTotalInodes();
+        List<Integer> files = new ArrayList<>();
+        for (int inodeNum = 0; inodeNum < total; inodeNum++) {
+            if (!inodes.isAllocated(inodeNum)) {
+                continue;
+            }
+            Inode inode = fs.loadInode(inodeNum);
+            if (inode != null
+                    && inode.getType() == Inode.FileType.REGULAR_FILE
+                    && firstBlock(inode) < Integer.MAX_VALUE) {
+                files.add(inodeNum);
+            }
+        }
+        return files;
+    }
+
+    private static int firstBlock(Inode inode) {
+        int first = Integer.MAX_VALUE;
+        for (int i = 0; i < 12; i++) {
+            int blockNum = inode.getBlockNumber(i);
+            if (blockNum >= 0) {
+                first = Math.min(first, blockNum);
+            }
+        }
+        return first;
+    }
+}
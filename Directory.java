@@ -2,10 +2,12 @@ package file_structure;
 
 // Directory.java - Manages directory entries
 import java.util.*;
+import java.util.function.LongSupplier;
 
 public class Directory {
     private Inode inode;
     private List<DirectoryEntry> entries;
+    private LongSupplier clock = System::currentTimeMillis; // For mtime
 
     public Directory(Inode inode) {
         if (inode.getType() != Inode.FileType.DIRECTORY) {
@@ -19,6 +21,15 @@ public class Directory {
         entries.add(new DirectoryEntry(inode.getInodeNumber(), "..", (byte) 2));
     }
 
+    // Rebuild a directory from persisted entries (including . and ..)
+    public Directory(Inode inode, List<DirectoryEntry> entries) {
+        if (inode.getType() != Inode.FileType.DIRECTORY) {
+            throw new IllegalArgumentException("Inode must be a directory");
+        }
+        this.inode = inode;
+        this.entries = new ArrayList<>(entries);
+    }
+
     public boolean addEntry(DirectoryEntry entry) {
         // Check if entry already exists
         for (DirectoryEntry e : entries) {
@@ -27,7 +38,7 @@ public class Directory {
             }
         }
         entries.add(entry);
-        inode.updateModifiedTime();
+        inode.updateModifiedTime(clock.getAsLong());
         return true;
     }
 
@@ -39,11 +50,27 @@ public class Directory {
 
         boolean removed = entries.removeIf(e -> e.getName().equals(name));
         if (removed) {
-            inode.updateModifiedTime();
+            inode.updateModifiedTime(clock.getAsLong());
         }
         return removed;
     }
 
+    // Point .. at a new parent directory
+    public void setParent(int parentInodeNumber) {
+        for (int i = 0; i < entries.size(); i++) {
+            if (entries.get(i).getName().equals("..")) {
+                entries.set(i, new DirectoryEntry(parentInodeNumber, "..",
+                        (byte) 2));
+                inode.updateModifiedTime(clock.getAsLong());
+                return;
+            }
+        }
+    }
+
+    public void setClock(LongSupplier clock) {
+        this.clock = clock;
+    }
+
     public DirectoryEntry findEntry(String name) {
         for (DirectoryEntry entry : entries) {
             if (entry.getName().equals(name)) {
@@ -1,6 +1,9 @@
 package file_structure;
 
 // DirectoryEntry.java - Maps filenames to inodes
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
 public class DirectoryEntry {
     private int inodeNumber;
     private short recordLength;
@@ -29,6 +32,36 @@ public class DirectoryEntry {
         this.recordLength = (short) (8 + ((nameLength + 3) & ~3));
     }
 
+    // Serialize as inode, recordLength, nameLength, fileType, padded name
+    public void writeTo(ByteBuffer buf) {
+        byte[] nameBytes = name.getBytes(StandardCharsets.UTF_8);
+        int padded = (nameBytes.length + 3) & ~3;
+        buf.putInt(inodeNumber);
+        buf.putShort((short) (8 + padded));
+        buf.put((byte) nameBytes.length);
+        buf.put(fileType);
+        buf.put(nameBytes);
+        buf.put(new byte[padded - nameBytes.length]);
+    }
+
+    public static DirectoryEntry readFrom(ByteBuffer buf) {
+        int inodeNumber = buf.getInt();
+        short recordLength = buf.getShort();
+        int nameLength = buf.get() & 0xFF;
+        byte fileType = buf.get();
+        byte[] nameBytes = new byte[nameLength];
+        buf.get(nameBytes);
+        buf.position(buf.position() + recordLength - 8 - nameLength);
+        return new DirectoryEntry(inodeNumber,
+                new String(nameBytes, StandardCharsets.UTF_8), fileType);
+    }
+
+    // Size of this entry once serialized
+    public int getEncodedLength() {
+        int nameBytes = name.getBytes(StandardCharsets.UTF_8).length;
+        return 8 + ((nameBytes + 3) & ~3);
+    }
+
     public int getInodeNumber() {
         return inodeNumber;
     }
@@ -0,0 +1,376 @@
+package file_structure;
+
+// DiskImage.java - On-disk layout of a persisted file system
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.*;
+
+public class DiskImage implements Closeable {
+    // Layout, in order:
+    //   superblock | group descriptors | block bitmap | inode bitmap
+    //   | inode table | data blocks | directory area
+    // Everything except the directory area sits at a fixed offset, so any
+    // single inode, directory or block can be read without a scan.
+    public static final int SUPERBLOCK_SIZE = 1024;
+    public static final int INODE_RECORD_SIZE = 128;
+
+    // Directory records are rounded up so small growth rewrites in place
+    private static final int DIRECTORY_SLACK = 256;
+
+    // Dead directory records are chained into a free list: each starts
+    // with FREE_RECORD, its capacity and the offset of the next one. The
+    // head is kept in the last bytes of the superblock slot.
+    private static final int FREE_RECORD = -1;
+    private static final int FREE_LIST_HEAD = SUPERBLOCK_SIZE - 8;
+
+    private RandomAccessFile file;
+    private FileChannel channel;
+    private Superblock superblock;
+
+    private long groupTableOffset;
+    private long blockBitmapOffset;
+    private long inodeBitmapOffset;
+    private long inodeTableOffset;
+    private long dataOffset;
+    private long appendOffset;
+    private long freeListHead;
+    private List<long[]> freeRecords; // {offset, capacity}, in chain order
+
+    private DiskImage(RandomAccessFile file, Superblock superblock,
+            long freeListHead) throws IOException {
+        this.file = file;
+        this.channel = file.getChannel();
+        this.superblock = superblock;
+        this.freeListHead = freeListHead;
+
+        int blockSize = superblock.getBlockSize();
+        long totalBlocks = superblock.getTotalBlocks();
+        long totalInodes = superblock.getTotalInodes();
+
+        this.groupTableOffset = SUPERBLOCK_SIZE;
+        this.blockBitmapOffset = groupTableOffset
+                + (long) superblock.getGroupCount() * GroupDescriptor.SIZE;
+        this.inodeBitmapOffset = blockBitmapOffset + (totalBlocks + 7) / 8;
+        this.inodeTableOffset = inodeBitmapOffset + (totalInodes + 7) / 8;
+        long tableEnd = inodeTableOffset + totalInodes * INODE_RECORD_SIZE;
+        this.dataOffset = (tableEnd + blockSize - 1) / blockSize * blockSize;
+        // Directory records are written at full capacity, so the file
+        // always ends where the next record goes
+        this.appendOffset = Math.max(channel.size(),
+                dataOffset + totalBlocks * blockSize);
+    }
+
+    // Open an existing image, reading only the superblock
+    public static DiskImage open(String path) throws IOException {
+        RandomAccessFile file = new RandomAccessFile(path, "rw");
+        ByteBuffer buf = ByteBuffer.allocate(SUPERBLOCK_SIZE);
+        file.getChannel().read(buf, 0);
+        buf.flip();
+        Superblock superblock = Superblock.readFrom(buf);
+        if (superblock == null) {
+            file.close();
+            throw new IOException("Not a file system image: " + path);
+        }
+        return new DiskImage(file, superblock, buf.getLong(FREE_LIST_HEAD));
+    }
+
+    // Create an empty image laid out for the given superblock
+    public static DiskImage create(String path, Superblock superblock)
+            throws IOException {
+        RandomAccessFile file = new RandomAccessFile(path, "rw");
+        file.setLength(0);
+        return new DiskImage(file, superblock, 0);
+    }
+
+    public Superblock getSuperblock() {
+        return superblock;
+    }
+
+    public void writeSuperblock(Superblock sb) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(SUPERBLOCK_SIZE);
+        sb.writeTo(buf);
+        buf.putLong(FREE_LIST_HEAD, freeListHead);
+        buf.rewind();
+        writeFully(buf, 0);
+    }
+
+    public GroupDescriptor[] readGroupDescriptors() throws IOException {
+        int count = superblock.getGroupCount();
+        ByteBuffer buf = readFully(groupTableOffset,
+                count * GroupDescriptor.SIZE);
+        GroupDescriptor[] groups = new GroupDescriptor[count];
+        for (int i = 0; i < count; i++) {
+            groups[i] = GroupDescriptor.readFrom(buf);
+        }
+        return groups;
+    }
+
+    public void writeGroupDescriptors(GroupDescriptor[] groups)
+            throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(
+                groups.length * GroupDescriptor.SIZE);
+        for (GroupDescriptor gd : groups) {
+            gd.writeTo(buf);
+        }
+        buf.flip();
+        writeFully(buf, groupTableOffset);
+    }
+
+    public Bitmap readBlockBitmap() throws IOException {
+        int size = (int) superblock.getTotalBlocks();
+        return Bitmap.fromByteArray(
+                readFully(blockBitmapOffset, (size + 7) / 8).array(), size);
+    }
+
+    public Bitmap readInodeBitmap() throws IOException {
+        int size = (int) superblock.getTotalInodes();
+        return Bitmap.fromByteArray(
+                readFully(inodeBitmapOffset, (size + 7) / 8).array(), size);
+    }
+
+    public void writeBitmaps(Bitmap blockBitmap, Bitmap inodeBitmap)
+            throws IOException {
+        writeFully(ByteBuffer.wrap(blockBitmap.toByteArray()),
+                blockBitmapOffset);
+        writeFully(ByteBuffer.wrap(inodeBitmap.toByteArray()),
+                inodeBitmapOffset);
+    }
+
+    // Returns null if the record is unused
+    public Inode readInode(int inodeNum) throws IOException {
+        return Inode.readFrom(readFully(inodeOffset(inodeNum),
+                Inode.ENCODED_SIZE));
+    }
+
+    // Write the inode fields, leaving the directory pointer untouched
+    public void writeInode(Inode inode) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(Inode.ENCODED_SIZE);
+        inode.writeTo(buf);
+        buf.flip();
+        writeFully(buf, inodeOffset(inode.getInodeNumber()));
+    }
+
+    // Clear an inode record, giving its directory record back
+    public void clearInode(int inodeNum) throws IOException {
+        ByteBuffer pointer = readDirectoryPointer(inodeNum);
+        long offset = pointer.getLong();
+        if (offset != 0) {
+            freeRecord(offset, pointer.getInt());
+        }
+        writeFully(ByteBuffer.allocate(INODE_RECORD_SIZE),
+                inodeOffset(inodeNum));
+    }
+
+    // Returns null if the inode has no directory record
+    public List<DirectoryEntry> readDirectory(int inodeNum)
+            throws IOException {
+        ByteBuffer pointer = readDirectoryPointer(inodeNum);
+        long offset = pointer.getLong();
+        if (offset == 0) {
+            return null;
+        }
+
+        ByteBuffer header = readFully(offset, 4);
+        int length = header.getInt();
+        ByteBuffer buf = readFully(offset + 4, length);
+        int count = buf.getInt();
+        List<DirectoryEntry> entries = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            entries.add(DirectoryEntry.readFrom(buf));
+        }
+        return entries;
+    }
+
+    public void writeDirectory(int inodeNum, List<DirectoryEntry> entries)
+            throws IOException {
+        int length = 4;
+        for (DirectoryEntry entry : entries) {
+            length += entry.getEncodedLength();
+        }
+        ByteBuffer buf = ByteBuffer.allocate(4 + length);
+        buf.putInt(length);
+        buf.putInt(entries.size());
+        for (DirectoryEntry entry : entries) {
+            entry.writeTo(buf);
+        }
+        buf.flip();
+
+        // Rewrite in place when it still fits, otherwise move to a record
+        // twice as large, so a growing directory moves only log(n) times
+        ByteBuffer pointer = readDirectoryPointer(inodeNum);
+        long offset = pointer.getLong();
+        int capacity = pointer.getInt();
+        if (offset != 0 && buf.remaining() <= capacity) {
+            writeFully(buf, offset);
+            return;
+        }
+
+        int needed = Math.max(capacity * 2, (buf.remaining()
+                + DIRECTORY_SLACK - 1) / DIRECTORY_SLACK * DIRECTORY_SLACK);
+        long[] reused = takeFreeRecord(needed);
+        long newOffset;
+        int newCapacity;
+        if (reused != null) {
+            newOffset = reused[0];
+            newCapacity = (int) reused[1];
+            writeFully(buf, newOffset);
+        } else {
+            newOffset = appendOffset;
+            newCapacity = needed;
+            appendOffset += needed;
+
+            // Write out the slack too, so the end of the file is the end of
+            // the directory area when the image is opened again
+            ByteBuffer record = ByteBuffer.allocate(needed);
+            record.put(buf);
+            record.rewind();
+            writeFully(record, newOffset);
+        }
+
+        // Switch the pointer only once the new record is complete
+        ByteBuffer newPointer = ByteBuffer.allocate(12);
+        newPointer.putLong(newOffset);
+        newPointer.putInt(newCapacity);
+        newPointer.flip();
+        writeFully(newPointer, inodeOffset(inodeNum) + Inode.ENCODED_SIZE);
+        if (offset != 0) {
+            freeRecord(offset, capacity);
+        }
+    }
+
+    // Read count adjacent blocks with a single positioned read
+    public byte[][] readBlocks(int firstBlock, int count) throws IOException {
+        int blockSize = superblock.getBlockSize();
+        ByteBuffer buf = readFully(dataOffset + (long) firstBlock * blockSize,
+                count * blockSize);
+        byte[][] blocks = new byte[count][];
+        for (int i = 0; i < count; i++) {
+            blocks[i] = Arrays.copyOfRange(buf.array(), i * blockSize,
+                    (i + 1) * blockSize);
+        }
+        return blocks;
+    }
+
+    // Write adjacent blocks with a single gathering write
+    public void writeBlocks(int firstBlock, byte[][] blocks)
+            throws IOException {
+        ByteBuffer[] bufs = new ByteBuffer[blocks.length];
+        for (int i = 0; i < blocks.length; i++) {
+            bufs[i] = ByteBuffer.wrap(blocks[i]);
+        }
+        channel.position(dataOffset
+                + (long) firstBlock * superblock.getBlockSize());
+        while (bufs[bufs.length - 1].hasRemaining()) {
+            channel.write(bufs);
+        }
+    }
+
+    public void force() throws IOException {
+        channel.force(true);
+    }
+
+    @Override
+    public void close() throws IOException {
+        file.close();
+    }
+
+    // Helper: Unlink and return the smallest dead record that holds size
+    // bytes, or null if there is none
+    private long[] takeFreeRecord(int size) throws IOException {
+        loadFreeRecords();
+        int best = -1;
+        for (int i = 0; i < freeRecords.size(); i++) {
+            if (freeRecords.get(i)[1] >= size && (best < 0
+                    || freeRecords.get(i)[1] < freeRecords.get(best)[1])) {
+                best = i;
+            }
+        }
+        if (best < 0) {
+            return null;
+        }
+
+        long[] taken = freeRecords.remove(best);
+        long next = best < freeRecords.size() ? freeRecords.get(best)[0] : 0;
+        if (best == 0) {
+            setFreeListHead(next);
+        } else {
+            long[] previous = freeRecords.get(best - 1);
+            writeFreeLink(previous[0], (int) previous[1], next);
+        }
+        return taken;
+    }
+
+    // Helper: Push a dead record onto the free list
+    private void freeRecord(long offset, int capacity) throws IOException {
+        loadFreeRecords();
+        writeFreeLink(offset, capacity, freeListHead);
+        freeRecords.add(0, new long[] { offset, capacity });
+        setFreeListHead(offset);
+    }
+
+    // Helper: Walk the on-disk chain the first time it is needed
+    private void loadFreeRecords() throws IOException {
+        if (freeRecords != null) {
+            return;
+        }
+        freeRecords = new ArrayList<>();
+        long offset = freeListHead;
+        while (offset != 0) {
+            ByteBuffer link = readFully(offset, 16);
+            if (link.getInt() != FREE_RECORD) {
+                throw new IOException(
+                        "Corrupt directory free list at " + offset);
+            }
+            freeRecords.add(new long[] { offset, link.getInt() });
+            offset = link.getLong();
+        }
+    }
+
+    private void writeFreeLink(long offset, int capacity, long next)
+            throws IOException {
+        ByteBuffer link = ByteBuffer.allocate(16);
+        link.putInt(FREE_RECORD);
+        link.putInt(capacity);
+        link.putLong(next);
+        link.flip();
+        writeFully(link, offset);
+    }
+
+    private void setFreeListHead(long offset) throws IOException {
+        freeListHead = offset;
+        ByteBuffer head = ByteBuffer.allocate(8);
+        head.putLong(offset);
+        head.flip();
+        writeFully(head, FREE_LIST_HEAD);
+    }
+
+    private long inodeOffset(int inodeNum) {
+        return inodeTableOffset + (long) inodeNum * INODE_RECORD_SIZE;
+    }
+
+    private ByteBuffer readDirectoryPointer(int inodeNum) throws IOException {
+        return readFully(inodeOffset(inodeNum) + Inode.ENCODED_SIZE, 12);
+    }
+
+    // Reads past the end of the file come back as zeros
+    private ByteBuffer readFully(long position, int length)
+            throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(length);
+        while (buf.hasRemaining()) {
+            int n = channel.read(buf, position + buf.position());
+            if (n < 0) {
+                break;
+            }
+        }
+        buf.rewind();
+        return buf;
+    }
+
+    private void writeFully(ByteBuffer buf, long position) throws IOException {
+        long pos = position;
+        while (buf.hasRemaining()) {
+            pos += channel.write(buf, pos);
+        }
+    }
+}
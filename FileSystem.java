@@ -1,19 +1,75 @@
 package file_structure;
 
 // FileSystem.java - Main file system implementation
+import java.io.*;
+import java.nio.channels.Channels;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.locks.*;
+import java.util.function.LongSupplier;
 
 public class FileSystem {
+    // How reads update atime and when timestamp changes reach the image.
+    // LAZYTIME updates atime on every read but only in memory; those
+    // inodes are written in batches and the time comes from a coarse clock.
+    // The batch is written once a minute from the clock's ticker thread
+    // under getLock(), so in that mode callers should hold the lock too.
+    public enum TimestampMode {
+        STRICTATIME,
+        RELATIME,
+        NOATIME,
+        LAZYTIME
+    }
+
     private Superblock superblock;
     private Bitmap inodeBitmap;
     private Bitmap blockBitmap;
     private Map<Integer, Inode> inodeTable;
     private Map<Integer, Directory> directoryCache;
     private Map<Integer, byte[]> blockStorage;
+    private GroupDescriptor[] groups;
+
+    // Backing image; when mounted, inodes, directories, bitmaps and blocks
+    // are only read from it on first access
+    private DiskImage image;
+    private IoScheduler scheduler;
+    private Set<Integer> freedInodes;
+    private boolean mountedClean;
+
+    // Inodes to write at the next sync, and inodes whose only change is a
+    // lazytime timestamp
+    private Set<Integer> dirtyInodes;
+    private Set<Integer> lazyInodes;
+    private TimestampMode timestampMode = TimestampMode.STRICTATIME;
+    private LongSupplier clock = System::currentTimeMillis;
+    private CoarseClock coarseClock;
+    private long lastTimestampWriteback;
+
+    // Delayed allocation: writes sit in per-inode dirty buffers and only
+    // get physical blocks when flushed
+    private boolean delayedAllocation;
+    private Map<Integer, byte[]> dirtyBuffers;
+    private long dirtyBytes;
+    private long dirtyLimit;
+    private long reservedBlocks;
+
+    // Held by everything that shares this file system across threads: the
+    // async front end, the defragmenter and the checker. A lock rather
+    // than a monitor, so virtual threads waiting on it do not pin their
+    // carrier threads.
+    private ReentrantLock lock = new ReentrantLock();
 
     // Root directory is always inode 2
     private static final int ROOT_INODE = 2;
 
+    // Default amount of buffered data before writeback kicks in
+    private static final long DEFAULT_DIRTY_LIMIT = 4L * 1024 * 1024;
+
+    // relatime still refreshes an atime that is older than this
+    private static final long RELATIME_WINDOW_MILLIS = 24L * 60 * 60 * 1000;
+    private static final long LAZYTIME_WRITEBACK_MILLIS = 60 * 1000;
+    private static final long COARSE_CLOCK_RESOLUTION_MILLIS = 10;
+
     public FileSystem(int blockSize, long totalBlocks, long totalInodes) {
         this.superblock = new Superblock(blockSize, totalBlocks, totalInodes);
         this.inodeBitmap = new Bitmap((int) totalInodes);
@@ -21,6 +77,10 @@ public class FileSystem {
         this.inodeTable = new HashMap<>();
         this.directoryCache = new HashMap<>();
         this.blockStorage = new HashMap<>();
+        this.dirtyBuffers = new HashMap<>();
+        this.dirtyLimit = DEFAULT_DIRTY_LIMIT;
+        this.dirtyInodes = new HashSet<>();
+        this.lazyInodes = new HashSet<>();
 
         // Reserve inode 0 and 1 (system reserved)
         inodeBitmap.reserve(0);
@@ -31,9 +91,232 @@ public class FileSystem {
 
         // Create root directory
         createRootDirectory();
+
+        this.groups = buildGroupDescriptors();
+        this.freedInodes = new HashSet<>();
+        this.mountedClean = true;
+    }
+
+    // Mount constructor: only the superblock and group descriptors are read
+    private FileSystem(DiskImage image, GroupDescriptor[] groups) {
+        this.image = image;
+        this.superblock = image.getSuperblock();
+        this.groups = groups;
+        this.inodeTable = new HashMap<>();
+        this.directoryCache = new HashMap<>();
+        this.blockStorage = new HashMap<>();
+        this.freedInodes = new HashSet<>();
+        this.dirtyBuffers = new HashMap<>();
+        this.dirtyLimit = DEFAULT_DIRTY_LIMIT;
+        this.dirtyInodes = new HashSet<>();
+        this.lazyInodes = new HashSet<>();
+
+        this.mountedClean =
+                superblock.getState() == Superblock.FileSystemState.CLEAN;
+        superblock.markMounted();
+    }
+
+    // Mount a persisted image. Free counts come from the checkpointed
+    // superblock and group descriptors; nothing else is read until used.
+    public static FileSystem mount(String imagePath) throws IOException {
+        DiskImage image = DiskImage.open(imagePath);
+        FileSystem fs = new FileSystem(image, image.readGroupDescriptors());
+        fs.scheduler = new IoScheduler(image);
+
+        // Persist the DIRTY state so a crash is visible on the next mount
+        image.writeSuperblock(fs.superblock);
+        return fs;
+    }
+
+    public static FileSystem mount(String imagePath, TimestampMode mode)
+            throws IOException {
+        FileSystem fs = mount(imagePath);
+        fs.setTimestampMode(mode);
+        return fs;
+    }
+
+    // Write this in-memory file system to a new image and stay mounted on it
+    public void saveAs(String imagePath) throws IOException {
+        if (image != null) {
+            throw new IllegalStateException(
+                    "File system is already backed by an image");
+        }
+        image = DiskImage.create(imagePath, superblock);
+        scheduler = new IoScheduler(image);
+        superblock.markMounted();
+        dirtyInodes.addAll(inodeTable.keySet());
+        sync();
+    }
+
+    // Write everything that has been loaded or changed back to the image
+    public void sync() throws IOException {
+        if (image == null) {
+            throw new IllegalStateException(
+                    "File system is not backed by an image");
+        }
+        flush();
+
+        image.writeSuperblock(superblock);
+        image.writeGroupDescriptors(groups);
+        if (blockBitmap != null) {
+            image.writeBitmaps(blockBitmap, inodeBitmap);
+        }
+
+        // Clear freed records first, their numbers may have been reused
+        for (int inodeNum : freedInodes) {
+            image.clearInode(inodeNum);
+        }
+        freedInodes.clear();
+
+        // Only changed inodes; an explicit sync also takes the pending
+        // lazytime batch along
+        dirtyInodes.addAll(lazyInodes);
+        lazyInodes.clear();
+        lastTimestampWriteback = clock.getAsLong();
+        // A directory's entries only change along with its inode
+        for (int inodeNum : dirtyInodes) {
+            Inode inode = inodeTable.get(inodeNum);
+            if (inode == null) {
+                continue;
+            }
+            image.writeInode(inode);
+            Directory dir = directoryCache.get(inodeNum);
+            if (dir != null) {
+                image.writeDirectory(inodeNum, dir.listEntries());
+            }
+        }
+        dirtyInodes.clear();
+
+        // Written blocks can be read back from the image from now on; the
+        // scheduler merges neighbouring blocks into single writes
+        List<CompletableFuture<byte[]>> writes = new ArrayList<>();
+        for (Map.Entry<Integer, byte[]> e : blockStorage.entrySet()) {
+            writes.add(scheduler.write(e.getKey(), e.getValue()));
+        }
+        try {
+            CompletableFuture.allOf(
+                    writes.toArray(new CompletableFuture<?>[0])).join();
+        } catch (java.util.concurrent.CompletionException e) {
+            if (e.getCause() instanceof UncheckedIOException) {
+                throw ((UncheckedIOException) e.getCause()).getCause();
+            }
+            throw e;
+        }
+        blockStorage.clear();
+
+        image.force();
+    }
+
+    // Checkpoint all state, mark the image CLEAN and detach from it
+    public void unmount() throws IOException {
+        sync();
+        for (GroupDescriptor gd : groups) {
+            gd.setDirty(false);
+        }
+        image.writeGroupDescriptors(groups);
+        superblock.setState(Superblock.FileSystemState.CLEAN);
+        image.writeSuperblock(superblock);
+        image.force();
+        scheduler.close();
+        scheduler = null;
+        image.close();
+        image = null;
+        if (coarseClock != null) {
+            coarseClock.close();
+        }
+    }
+
+    // Switch the timestamp mode; leaving LAZYTIME turns pending timestamp
+    // updates into ordinary dirty metadata
+    public void setTimestampMode(TimestampMode mode) {
+        if (timestampMode == TimestampMode.LAZYTIME
+                && mode != TimestampMode.LAZYTIME) {
+            dirtyInodes.addAll(lazyInodes);
+            lazyInodes.clear();
+            coarseClock.close();
+            coarseClock = null;
+            clock = System::currentTimeMillis;
+        } else if (mode == TimestampMode.LAZYTIME
+                && timestampMode != TimestampMode.LAZYTIME) {
+            coarseClock = new CoarseClock(COARSE_CLOCK_RESOLUTION_MILLIS);
+            coarseClock.schedule(this::timedTimestampWriteback,
+                    LAZYTIME_WRITEBACK_MILLIS);
+            clock = coarseClock;
+            lastTimestampWriteback = clock.getAsLong();
+        }
+        timestampMode = mode;
+        for (Directory dir : directoryCache.values()) {
+            dir.setClock(clock);
+        }
+    }
+
+    public TimestampMode getTimestampMode() {
+        return timestampMode;
+    }
+
+    // Write the batch of inodes whose only change is a lazytime timestamp.
+    // Inodes with other pending changes are left to the next sync: their
+    // size and block pointers must not reach the image before their data.
+    public void writeBackTimestamps() {
+        if (image != null) {
+            try {
+                for (int inodeNum : lazyInodes) {
+                    Inode inode = inodeTable.get(inodeNum);
+                    if (inode != null && !dirtyInodes.contains(inodeNum)) {
+                        image.writeInode(inode);
+                    }
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        lazyInodes.clear();
+        lastTimestampWriteback = clock.getAsLong();
+    }
+
+    // Helper: Periodic lazytime writeback, run on the coarse clock's
+    // ticker. A failed write leaves the batch pending for the next round;
+    // unmount reports it.
+    private void timedTimestampWriteback() {
+        lock.lock();
+        try {
+            if (!lazyInodes.isEmpty()) {
+                writeBackTimestamps();
+            }
+        } catch (UncheckedIOException e) {
+            // Retried on the next tick
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Pending lazytime inode writes
+    public int getLazyInodeCount() {
+        return lazyInodes.size();
+    }
+
+    // Callers using this file system from several threads must hold it
+    public Lock getLock() {
+        return lock;
+    }
+
+    // True if the image was not cleanly unmounted and should be checked
+    public boolean needsCheck() {
+        return !mountedClean;
+    }
+
+    // Run the consistency checker over the whole file system
+    public FileSystemChecker.Report check(boolean repair) {
+        return new FileSystemChecker(this)
+                .run(FileSystemChecker.Mode.FULL, repair);
+    }
+
+    // Re-check only the groups touched since the last clean unmount
+    public FileSystemChecker.Report checkIncremental(boolean repair) {
+        return new FileSystemChecker(this)
+                .run(FileSystemChecker.Mode.INCREMENTAL, repair);
     }
 
-    
     private void createRootDirectory() {
         Inode rootInode = new Inode(ROOT_INODE,
                 Inode.FileType.DIRECTORY, 0, 0);
@@ -41,6 +324,7 @@ public class FileSystem {
         inodeTable.put(ROOT_INODE, rootInode);
 
         Directory rootDir = new Directory(rootInode);
+        rootDir.setClock(clock);
         directoryCache.put(ROOT_INODE, rootDir);
 
         superblock.allocateInode();
@@ -70,8 +354,8 @@ public class FileSystem {
         }
 
         // Allocate new inode
-        int inodeNum = inodeBitmap.allocate();
-        if (inodeNum < 0 || !superblock.allocateInode()) {
+        int inodeNum = allocateInodeNumber();
+        if (inodeNum < 0) {
             return false;
         }
 
@@ -83,6 +367,7 @@ public class FileSystem {
         // Add directory entry
         DirectoryEntry entry = new DirectoryEntry(inodeNum, fileName, (byte) 1);
         parentDir.addEntry(entry);
+        markInodeDirty(parentInode.getInodeNumber());
 
         return true;
     }
@@ -111,8 +396,8 @@ public class FileSystem {
         }
 
         // Allocate new inode
-        int inodeNum = inodeBitmap.allocate();
-        if (inodeNum < 0 || !superblock.allocateInode()) {
+        int inodeNum = allocateInodeNumber();
+        if (inodeNum < 0) {
             return false;
         }
 
@@ -123,16 +408,16 @@ public class FileSystem {
 
         // Create directory structure
         Directory newDir = new Directory(dirInode);
+        newDir.setClock(clock);
         directoryCache.put(inodeNum, newDir);
 
         // Update .. to point to parent
-        newDir.removeEntry("..");
-        newDir.addEntry(new DirectoryEntry(
-                parentInode.getInodeNumber(), "..", (byte) 2));
+        newDir.setParent(parentInode.getInodeNumber());
 
         // Add directory entry in parent
         DirectoryEntry entry = new DirectoryEntry(inodeNum, dirName, (byte) 2);
         parentDir.addEntry(entry);
+        markInodeDirty(parentInode.getInodeNumber());
 
         return true;
     }
@@ -145,18 +430,41 @@ public class FileSystem {
             return false;
         }
 
+        if (delayedAllocation) {
+            return bufferWrite(inode, data);
+        }
+
         int blockSize = superblock.getBlockSize();
         int blocksNeeded = (data.length + blockSize - 1) / blockSize;
 
+        // The write replaces the whole file. Its old blocks count as free
+        // space, but are only released once the new data is known to fit.
+        int oldBlocks = 0;
+        for (int i = 0; i < 12; i++) {
+            if (inode.getBlockNumber(i) >= 0) {
+                oldBlocks++;
+            }
+        }
+        if (blocksNeeded > 12
+                || blocksNeeded > unreservedFreeBlocks() + oldBlocks) {
+            return false;
+        }
+        for (int i = 0; i < 12; i++) {
+            int blockNum = inode.getBlockNumber(i);
+            if (blockNum >= 0) {
+                releaseBlock(blockNum);
+            }
+        }
+        inode.clearBlocks();
+
         // Allocate blocks
         List<Integer> blocks = new ArrayList<>();
         for (int i = 0; i < blocksNeeded; i++) {
-            int blockNum = blockBitmap.allocate();
-            if (blockNum < 0 || !superblock.allocateBlock()) {
+            int blockNum = allocateBlockNumber();
+            if (blockNum < 0) {
                 // Rollback
                 for (int b : blocks) {
-                    blockBitmap.free(b);
-                    superblock.freeBlock();
+                    releaseBlock(b);
                 }
                 return false;
             }
@@ -174,38 +482,90 @@ public class FileSystem {
         }
 
         inode.setSize(data.length);
-        inode.updateModifiedTime();
+        touchModified(inode);
+        markInodeDirty(inode.getInodeNumber());
         return true;
     }
 
     // Read data from a file
     public byte[] readFile(String path) {
+        return startRead(path).join();
+    }
+
+    // Helper: Resolve the file and start reading its blocks. Cached blocks
+    // are copied right away, the rest arrive through the I/O scheduler, so
+    // callers can wait for the result without holding any lock.
+    CompletableFuture<byte[]> startRead(String path) {
         Inode inode = resolvePath(path);
         if (inode == null ||
                 inode.getType() != Inode.FileType.REGULAR_FILE) {
-            return null;
+            return CompletableFuture.completedFuture(null);
+        }
+
+        // Data that has not been flushed yet lives only in the dirty buffer
+        byte[] buffered = dirtyBuffers.get(inode.getInodeNumber());
+        if (buffered != null) {
+            touchAccess(inode);
+            return CompletableFuture.completedFuture(
+                    Arrays.copyOf(buffered, buffered.length));
         }
 
         int blockSize = superblock.getBlockSize();
         long fileSize = inode.getSize();
         byte[] data = new byte[(int) fileSize];
 
+        List<CompletableFuture<Void>> pending = new ArrayList<>();
         int blocksToRead = (int) ((fileSize + blockSize - 1) / blockSize);
         for (int i = 0; i < blocksToRead; i++) {
             int blockNum = inode.getBlockNumber(i);
             if (blockNum < 0)
                 continue;
 
+            int offset = i * blockSize;
+            int length = (int) Math.min(blockSize, fileSize - offset);
             byte[] blockData = blockStorage.get(blockNum);
             if (blockData != null) {
-                int offset = i * blockSize;
-                int length = (int) Math.min(blockSize, fileSize - offset);
                 System.arraycopy(blockData, 0, data, offset, length);
+            } else if (scheduler != null) {
+                pending.add(scheduler.read(blockNum).thenAccept(b ->
+                        System.arraycopy(b, 0, data, offset, length)));
             }
         }
 
-        inode.updateAccessTime();
-        return data;
+        touchAccess(inode);
+        return CompletableFuture.allOf(
+                pending.toArray(new CompletableFuture<?>[0]))
+                .thenApply(v -> data);
+    }
+
+    // Open a file for block-by-block access without loading it whole
+    public InodeChannel openChannel(String path) {
+        Inode inode = resolvePath(path);
+        if (inode == null ||
+                inode.getType() != Inode.FileType.REGULAR_FILE) {
+            return null;
+        }
+
+        // Channels work on the block mapping, buffered data must land first
+        if (dirtyBuffers.containsKey(inode.getInodeNumber())) {
+            flushInode(inode.getInodeNumber());
+        }
+        return new InodeChannel(this, inode);
+    }
+
+    public InputStream openInputStream(String path) {
+        InodeChannel channel = openChannel(path);
+        return channel == null ? null : Channels.newInputStream(channel);
+    }
+
+    // Opens for writing from the start, truncating existing content
+    public OutputStream openOutputStream(String path) {
+        InodeChannel channel = openChannel(path);
+        if (channel == null) {
+            return null;
+        }
+        truncateInode(resolvePath(path), 0);
+        return Channels.newOutputStream(channel);
     }
 
     // List directory contents
@@ -245,35 +605,744 @@ public class FileSystem {
         Inode parentInode = resolvePath(parentPath);
         Directory parentDir = getDirectory(parentInode.getInodeNumber());
 
+        // Remove directory entry
+        parentDir.removeEntry(fileName);
+        markInodeDirty(parentInode.getInodeNumber());
+
+        // Blocks and inode stay as long as another name points here
+        unlinkInode(fileInode);
+
+        return true;
+    }
+
+    // Add another name for an existing file (directories cannot be linked)
+    public boolean link(String existingPath, String newPath) {
+        Inode inode = resolvePath(existingPath);
+        if (inode == null ||
+                inode.getType() != Inode.FileType.REGULAR_FILE) {
+            return false;
+        }
+
+        String[] parts = parsePath(newPath);
+        if (parts.length == 0)
+            return false;
+
+        String linkName = parts[parts.length - 1];
+        Inode parentInode = resolvePath(getParentPath(parts));
+        if (parentInode == null ||
+                parentInode.getType() != Inode.FileType.DIRECTORY) {
+            return false;
+        }
+
+        Directory parentDir = getDirectory(parentInode.getInodeNumber());
+        if (parentDir.findEntry(linkName) != null) {
+            return false;
+        }
+
+        parentDir.addEntry(new DirectoryEntry(
+                inode.getInodeNumber(), linkName, (byte) 1));
+        inode.incrementLinkCount();
+        markInodeDirty(parentInode.getInodeNumber());
+        markInodeDirty(inode.getInodeNumber());
+        return true;
+    }
+
+    // Rename or move a file or directory. Only directory entries change, so
+    // the cost does not depend on the amount of data. An existing target
+    // file (or empty directory) is replaced in the same step.
+    public boolean rename(String oldPath, String newPath) {
+        String[] oldParts = parsePath(oldPath);
+        String[] newParts = parsePath(newPath);
+        if (oldParts.length == 0 || newParts.length == 0)
+            return false;
+
+        String oldName = oldParts[oldParts.length - 1];
+        String newName = newParts[newParts.length - 1];
+        if (isDotEntry(oldName) || isDotEntry(newName)) {
+            return false;
+        }
+
+        Inode oldParentInode = resolvePath(getParentPath(oldParts));
+        Inode newParentInode = resolvePath(getParentPath(newParts));
+        if (oldParentInode == null || newParentInode == null ||
+                oldParentInode.getType() != Inode.FileType.DIRECTORY ||
+                newParentInode.getType() != Inode.FileType.DIRECTORY) {
+            return false;
+        }
+
+        Directory oldParent = getDirectory(oldParentInode.getInodeNumber());
+        Directory newParent = getDirectory(newParentInode.getInodeNumber());
+        DirectoryEntry entry = oldParent.findEntry(oldName);
+        if (entry == null) {
+            return false;
+        }
+        Inode inode = getInode(entry.getInodeNumber());
+        if (inode == null) {
+            return false;
+        }
+
+        boolean isDir = inode.getType() == Inode.FileType.DIRECTORY;
+        if (isDir && isAncestor(inode.getInodeNumber(),
+                newParentInode.getInodeNumber())) {
+            return false; // Cannot move a directory below itself
+        }
+
+        // Replace whatever the new name points at
+        DirectoryEntry existing = newParent.findEntry(newName);
+        if (existing != null) {
+            if (existing.getInodeNumber() == inode.getInodeNumber()) {
+                return true; // Same file under both names
+            }
+            Inode target = getInode(existing.getInodeNumber());
+            boolean targetIsDir = target != null &&
+                    target.getType() == Inode.FileType.DIRECTORY;
+            if (targetIsDir != isDir) {
+                return false;
+            }
+            if (targetIsDir &&
+                    getDirectory(target.getInodeNumber()).listEntries().size() > 2) {
+                return false; // Only . and .. allowed
+            }
+
+            newParent.removeEntry(newName);
+            if (targetIsDir) {
+                directoryCache.remove(target.getInodeNumber());
+                releaseInodeNumber(target.getInodeNumber());
+            } else if (target != null) {
+                unlinkInode(target);
+            }
+        }
+
+        oldParent.removeEntry(oldName);
+        newParent.addEntry(new DirectoryEntry(
+                inode.getInodeNumber(), newName, entry.getFileType()));
+        if (isDir) {
+            getDirectory(inode.getInodeNumber())
+                    .setParent(newParentInode.getInodeNumber());
+            markInodeDirty(inode.getInodeNumber());
+        }
+        markInodeDirty(oldParentInode.getInodeNumber());
+        markInodeDirty(newParentInode.getInodeNumber());
+        return true;
+    }
+
+    // Enable or disable delayed allocation; disabling flushes pending data
+    public void setDelayedAllocation(boolean enabled) {
+        if (!enabled) {
+            flush();
+        }
+        this.delayedAllocation = enabled;
+    }
+
+    public boolean isDelayedAllocation() {
+        return delayedAllocation;
+    }
+
+    // Set how many bytes may be buffered before dirty data is written back
+    public void setDirtyLimit(long bytes) {
+        this.dirtyLimit = bytes;
+        writeBackIfNeeded();
+    }
+
+    public long getDirtyBytes() {
+        return dirtyBytes;
+    }
+
+    // Allocate blocks for and write out every dirty buffer
+    public void flush() {
+        List<Integer> pending = new ArrayList<>(dirtyBuffers.keySet());
+        Collections.sort(pending);
+        for (int inodeNum : pending) {
+            flushInode(inodeNum);
+        }
+    }
+
+    // Helper: Keep the data in memory and reserve the blocks it will need
+    private boolean bufferWrite(Inode inode, byte[] data) {
+        int inodeNum = inode.getInodeNumber();
+        long blocksNeeded = blocksFor(data.length);
+        if (blocksNeeded > 12) {
+            return false; // Only direct blocks are supported
+        }
+
+        // Reserve space now so the flush can never run out of blocks
+        byte[] previous = dirtyBuffers.get(inodeNum);
+        long previousBlocks = previous == null ? 0 : blocksFor(previous.length);
+        long available = unreservedFreeBlocks() + previousBlocks;
+        if (blocksNeeded > available) {
+            return false;
+        }
+
+        if (previous != null) {
+            dirtyBytes -= previous.length;
+        }
+        reservedBlocks += blocksNeeded - previousBlocks;
+        dirtyBuffers.put(inodeNum, Arrays.copyOf(data, data.length));
+        dirtyBytes += data.length;
+
+        inode.setSize(data.length);
+        touchModified(inode);
+        markInodeDirty(inodeNum);
+
+        writeBackIfNeeded();
+        return true;
+    }
+
+    // Helper: Flush the largest buffers until we are back under the limit
+    private void writeBackIfNeeded() {
+        while (dirtyBytes > dirtyLimit && !dirtyBuffers.isEmpty()) {
+            int largest = -1;
+            int largestSize = -1;
+            for (Map.Entry<Integer, byte[]> e : dirtyBuffers.entrySet()) {
+                if (e.getValue().length > largestSize) {
+                    largest = e.getKey();
+                    largestSize = e.getValue().length;
+                }
+            }
+            flushInode(largest);
+        }
+    }
+
+    // Helper: Allocate one contiguous run for the buffered data and write it
+    private void flushInode(int inodeNum) {
+        byte[] data = dirtyBuffers.get(inodeNum);
+        Inode inode = getInode(inodeNum);
+        // Hand the reservation back so the allocations below may use it
+        discardBuffer(inodeNum);
+        if (data == null || inode == null) {
+            return;
+        }
+
+        // The buffer replaces the whole file, release the old blocks first
+        for (int i = 0; i < 12; i++) {
+            int blockNum = inode.getBlockNumber(i);
+            if (blockNum >= 0) {
+                releaseBlock(blockNum);
+            }
+        }
+        inode.clearBlocks();
+
+        int blockSize = superblock.getBlockSize();
+        int blocksNeeded = (int) blocksFor(data.length);
+
+        // Prefer a single run sized to the final length, fall back to
+        // individual blocks when free space is too fragmented
+        List<Integer> blocks = new ArrayList<>();
+        int start = allocateBlockRun(blocksNeeded);
+        if (start >= 0) {
+            for (int i = 0; i < blocksNeeded; i++) {
+                blocks.add(start + i);
+            }
+        } else {
+            for (int i = 0; i < blocksNeeded; i++) {
+                int blockNum = allocateBlockNumber();
+                if (blockNum < 0) {
+                    break; // Cannot happen while reservations hold
+                }
+                blocks.add(blockNum);
+            }
+        }
+        blocksNeeded = blocks.size();
+
+        for (int i = 0; i < blocksNeeded; i++) {
+            int blockNum = blocks.get(i);
+            inode.addBlock(blockNum);
+
+            int offset = i * blockSize;
+            int length = Math.min(blockSize, data.length - offset);
+            byte[] blockData = new byte[blockSize];
+            System.arraycopy(data, offset, blockData, 0, length);
+            blockStorage.put(blockNum, blockData);
+        }
+        inode.setSize(Math.min(inode.getSize(),
+                (long) blocksNeeded * blockSize));
+        markInodeDirty(inodeNum);
+    }
+
+    // Helper: Drop a dirty buffer and give back its block reservation
+    private void discardBuffer(int inodeNum) {
+        byte[] data = dirtyBuffers.remove(inodeNum);
+        if (data != null) {
+            dirtyBytes -= data.length;
+            reservedBlocks -= blocksFor(data.length);
+        }
+    }
+
+    private long blocksFor(long bytes) {
+        int blockSize = superblock.getBlockSize();
+        return (bytes + blockSize - 1) / blockSize;
+    }
+
+    // Helper: Drop one link; free the data and inode with the last one
+    private void unlinkInode(Inode inode) {
+        inode.decrementLinkCount();
+        markInodeDirty(inode.getInodeNumber());
+        if (inode.getLinkCount() > 0) {
+            return;
+        }
+
+        // Unflushed data never reached the allocator, just drop it
+        discardBuffer(inode.getInodeNumber());
+
         // Free all blocks
         for (int i = 0; i < 12; i++) {
-            int blockNum = fileInode.getBlockNumber(i);
+            int blockNum = inode.getBlockNumber(i);
             if (blockNum >= 0) {
-                blockBitmap.free(blockNum);
-                blockStorage.remove(blockNum);
-                superblock.freeBlock();
+                releaseBlock(blockNum);
             }
         }
 
         // Free inode
-        inodeBitmap.free(fileInode.getInodeNumber());
-        inodeTable.remove(fileInode.getInodeNumber());
+        releaseInodeNumber(inode.getInodeNumber());
+    }
+
+    // Helper: True if dirInode is maybeChild or one of its parents
+    private boolean isAncestor(int dirInode, int maybeChild) {
+        int current = maybeChild;
+        while (true) {
+            if (current == dirInode) {
+                return true;
+            }
+            if (current == ROOT_INODE) {
+                return false;
+            }
+            DirectoryEntry parent = getDirectory(current).findEntry("..");
+            if (parent == null || parent.getInodeNumber() == current) {
+                return false;
+            }
+            current = parent.getInodeNumber();
+        }
+    }
+
+    private boolean isDotEntry(String name) {
+        return name.equals(".") || name.equals("..");
+    }
+
+    // Helper: Allocate an inode number, keeping all counters in step
+    private int allocateInodeNumber() {
+        loadBitmaps();
+        int inodeNum = inodeBitmap.allocate();
+        if (inodeNum < 0) {
+            return -1;
+        }
+        if (!superblock.allocateInode()) {
+            inodeBitmap.free(inodeNum);
+            return -1;
+        }
+        groups[inodeNum / superblock.getInodesPerGroup()].allocateInode();
+        markInodeDirty(inodeNum);
+        return inodeNum;
+    }
+
+    private void releaseInodeNumber(int inodeNum) {
+        loadBitmaps();
+        inodeBitmap.free(inodeNum);
+        inodeTable.remove(inodeNum);
+        freedInodes.add(inodeNum);
         superblock.freeInode();
+        groups[inodeNum / superblock.getInodesPerGroup()].freeInode();
+        markInodeDirty(inodeNum);
+    }
 
-        // Remove directory entry
-        parentDir.removeEntry(fileName);
+    // Helper: Blocks that may still be handed out; blocks reserved for
+    // buffered data are off limits to every other allocation
+    private long unreservedFreeBlocks() {
+        return superblock.getFreeBlocks() - reservedBlocks;
+    }
+
+    // Helper: Allocate a single block, keeping all counters in step
+    private int allocateBlockNumber() {
+        if (unreservedFreeBlocks() < 1) {
+            return -1;
+        }
+        loadBitmaps();
+        int blockNum = blockBitmap.allocate();
+        if (blockNum < 0) {
+            return -1;
+        }
+        if (!superblock.allocateBlock()) {
+            blockBitmap.free(blockNum);
+            return -1;
+        }
+        groups[blockNum / superblock.getBlocksPerGroup()].allocateBlock();
+        markGroupDirty(blockNum / superblock.getBlocksPerGroup());
+        return blockNum;
+    }
+
+    // Helper: Allocate count contiguous blocks, returns the first or -1
+    private int allocateBlockRun(int count) {
+        loadBitmaps();
+        if (unreservedFreeBlocks() < count) {
+            return -1;
+        }
+        int start = blockBitmap.allocateRun(count);
+        if (start < 0) {
+            return -1;
+        }
+        for (int blockNum = start; blockNum < start + count; blockNum++) {
+            superblock.allocateBlock();
+            groups[blockNum / superblock.getBlocksPerGroup()].allocateBlock();
+            markGroupDirty(blockNum / superblock.getBlocksPerGroup());
+        }
+        return start;
+    }
+
+    // Helper: Allocate one specific free block, keeping all counters in step
+    private boolean claimBlock(int blockNum) {
+        loadBitmaps();
+        if (unreservedFreeBlocks() < 1 || blockBitmap.isAllocated(blockNum)) {
+            return false;
+        }
+        blockBitmap.reserve(blockNum);
+        superblock.allocateBlock();
+        groups[blockNum / superblock.getBlocksPerGroup()].allocateBlock();
+        markGroupDirty(blockNum / superblock.getBlocksPerGroup());
+        return true;
+    }
+
+    private void releaseBlock(int blockNum) {
+        loadBitmaps();
+        blockBitmap.free(blockNum);
+        blockStorage.remove(blockNum);
+        superblock.freeBlock();
+        groups[blockNum / superblock.getBlocksPerGroup()].freeBlock();
+        markGroupDirty(blockNum / superblock.getBlocksPerGroup());
+    }
+
+    // Helper: Record that an inode changed. It is written at the next sync,
+    // and its group is flagged so an incremental check knows to look at it
+    void markInodeDirty(int inodeNum) {
+        dirtyInodes.add(inodeNum);
+        markGroupDirty(inodeNum / superblock.getInodesPerGroup());
+    }
+
+    // Helper: Apply the mount's atime policy to a read
+    void touchAccess(Inode inode) {
+        if (timestampMode == TimestampMode.NOATIME) {
+            return;
+        }
+        long now = clock.getAsLong();
+        if (timestampMode == TimestampMode.RELATIME
+                && inode.getAccessedTime() > inode.getModifiedTime()
+                && now - inode.getAccessedTime() < RELATIME_WINDOW_MILLIS) {
+            return;
+        }
+
+        inode.updateAccessTime(now);
+        if (timestampMode != TimestampMode.LAZYTIME) {
+            dirtyInodes.add(inode.getInodeNumber());
+            return;
+        }
+        lazyInodes.add(inode.getInodeNumber());
+        if (now - lastTimestampWriteback >= LAZYTIME_WRITEBACK_MILLIS) {
+            writeBackTimestamps();
+        }
+    }
+
+    // Callers also mark the inode dirty, an mtime never changes alone
+    void touchModified(Inode inode) {
+        inode.updateModifiedTime(clock.getAsLong());
+    }
+
+    private void markGroupDirty(int group) {
+        if (groups == null || groups[group].isDirty()) {
+            return;
+        }
+        groups[group].setDirty(true);
+
+        // Persist the flag right away so it survives a crash
+        if (image != null) {
+            try {
+                image.writeGroupDescriptors(groups);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    // Helper: Bitmaps are only needed once something is allocated or freed
+    private void loadBitmaps() {
+        if (blockBitmap != null) {
+            return;
+        }
+        try {
+            blockBitmap = image.readBlockBitmap();
+            inodeBitmap = image.readInodeBitmap();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private GroupDescriptor[] buildGroupDescriptors() {
+        int blocksPerGroup = superblock.getBlocksPerGroup();
+        int inodesPerGroup = superblock.getInodesPerGroup();
+        int totalBlocks = (int) superblock.getTotalBlocks();
+        int totalInodes = (int) superblock.getTotalInodes();
+
+        GroupDescriptor[] result =
+                new GroupDescriptor[superblock.getGroupCount()];
+        for (int g = 0; g < result.length; g++) {
+            int firstBlock = g * blocksPerGroup;
+            int lastBlock = Math.min(firstBlock + blocksPerGroup, totalBlocks);
+            int firstInode = Math.min(g * inodesPerGroup, totalInodes);
+            int lastInode = Math.min(firstInode + inodesPerGroup, totalInodes);
+            result[g] = new GroupDescriptor(
+                    lastBlock - firstBlock
+                            - blockBitmap.countAllocated(firstBlock, lastBlock),
+                    lastInode - firstInode
+                            - inodeBitmap.countAllocated(firstInode, lastInode));
+        }
+        return result;
+    }
+
+    // Helper: Count in-use inodes from the group descriptors
+    private long countUsedInodes() {
+        long free = 0;
+        for (GroupDescriptor gd : groups) {
+            free += gd.getFreeInodes();
+        }
+        // Inodes 0 and 1 are reserved and never hold a file
+        return superblock.getTotalInodes() - free - 2;
+    }
+
+    // Helper: Look up an inode, loading it from the image on first access
+    private Inode getInode(int inodeNum) {
+        Inode inode = inodeTable.get(inodeNum);
+        if (inode == null && image != null
+                && !freedInodes.contains(inodeNum)) {
+            try {
+                inode = image.readInode(inodeNum);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            if (inode != null) {
+                inodeTable.put(inodeNum, inode);
+            }
+        }
+        return inode;
+    }
+
+    // Helper: Read a block, falling back to the image if it is not cached
+    private byte[] readBlock(int blockNum) {
+        byte[] data = blockStorage.get(blockNum);
+        if (data == null && scheduler != null) {
+            data = scheduler.read(blockNum).join();
+        }
+        return data;
+    }
+
+    // Checker hooks: read-only views that never populate the caches, so
+    // they are safe to call from several checker threads at once
+    Superblock getSuperblock() {
+        return superblock;
+    }
+
+    GroupDescriptor[] getGroupDescriptors() {
+        return groups;
+    }
+
+    Bitmap getInodeBitmap() {
+        loadBitmaps();
+        return inodeBitmap;
+    }
+
+    Bitmap getBlockBitmap() {
+        loadBitmaps();
+        return blockBitmap;
+    }
+
+    int getRootInodeNumber() {
+        return ROOT_INODE;
+    }
+
+    Inode peekInode(int inodeNum) {
+        Inode inode = inodeTable.get(inodeNum);
+        if (inode == null && image != null
+                && !freedInodes.contains(inodeNum)) {
+            try {
+                inode = image.readInode(inodeNum);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        return inode;
+    }
+
+    List<DirectoryEntry> peekDirectory(int inodeNum) {
+        Directory dir = directoryCache.get(inodeNum);
+        if (dir != null) {
+            return dir.listEntries();
+        }
+        if (image != null) {
+            try {
+                List<DirectoryEntry> entries = image.readDirectory(inodeNum);
+                if (entries != null) {
+                    return entries;
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        return Collections.emptyList();
+    }
+
+    // Channel hooks, used by InodeChannel
+    int mapBlock(Inode inode, int logicalBlock) {
+        int blockNum = allocateBlockNumber();
+        if (blockNum < 0) {
+            return -1;
+        }
+        // Never expose whatever the image still holds for this block
+        blockStorage.put(blockNum, new byte[superblock.getBlockSize()]);
+        inode.setBlockNumber(logicalBlock, blockNum);
+        markInodeDirty(inode.getInodeNumber());
+        return blockNum;
+    }
+
+    void storeBlock(Inode inode, int blockNum, byte[] data) {
+        blockStorage.put(blockNum, data);
+        markInodeDirty(inode.getInodeNumber());
+    }
+
+    // Shrink a file, freeing whole blocks past the end and zeroing the
+    // tail of the last one so a later extension reads zeros
+    void truncateInode(Inode inode, long size) {
+        int blockSize = superblock.getBlockSize();
+        for (int i = (int) blocksFor(size); i < 12; i++) {
+            int blockNum = inode.getBlockNumber(i);
+            if (blockNum >= 0) {
+                releaseBlock(blockNum);
+                inode.setBlockNumber(i, -1);
+            }
+        }
+
+        int tail = (int) (size % blockSize);
+        int last = inode.getBlockNumber((int) (size / blockSize));
+        if (tail != 0 && last >= 0) {
+            byte[] data = Arrays.copyOf(readBlock(last), blockSize);
+            Arrays.fill(data, tail, blockSize, (byte) 0);
+            blockStorage.put(last, data);
+        }
+
+        inode.setSize(size);
+        touchModified(inode);
+        markInodeDirty(inode.getInodeNumber());
+    }
+
+    // Defragmenter hooks
+    // Copy a file's mapped blocks, in logical order, into the run starting
+    // at newStart. The run may overlap the file's current blocks: blocks it
+    // does not own yet are claimed first, all data is read before anything
+    // is overwritten, the mapping switches over in one step and only the
+    // old blocks left outside the run are freed. False if the run could
+    // not be claimed.
+    boolean moveBlocks(Inode inode, int newStart) {
+        List<Integer> oldBlocks = new ArrayList<>();
+        List<byte[]> contents = new ArrayList<>();
+        for (int i = 0; i < 12; i++) {
+            int blockNum = inode.getBlockNumber(i);
+            if (blockNum >= 0) {
+                byte[] data = readBlock(blockNum);
+                oldBlocks.add(blockNum);
+                contents.add(Arrays.copyOf(data, data.length));
+            }
+        }
+        int newEnd = newStart + oldBlocks.size();
+
+        List<Integer> claimed = new ArrayList<>();
+        for (int blockNum = newStart; blockNum < newEnd; blockNum++) {
+            if (oldBlocks.contains(blockNum)) {
+                continue;
+            }
+            if (!claimBlock(blockNum)) {
+                for (int b : claimed) {
+                    releaseBlock(b);
+                }
+                return false;
+            }
+            claimed.add(blockNum);
+        }
 
+        int[] mapping = new int[12];
+        int next = 0;
+        for (int i = 0; i < 12; i++) {
+            mapping[i] = -1;
+            if (inode.getBlockNumber(i) >= 0) {
+                blockStorage.put(newStart + next, contents.get(next));
+                mapping[i] = newStart + next++;
+            }
+        }
+
+        inode.replaceBlocks(mapping);
+        for (int blockNum : oldBlocks) {
+            if (blockNum < newStart || blockNum >= newEnd) {
+                releaseBlock(blockNum);
+            }
+        }
+        markInodeDirty(inode.getInodeNumber());
         return true;
     }
 
+    boolean hasBufferedData(int inodeNum) {
+        return dirtyBuffers.containsKey(inodeNum);
+    }
+
+    // Run the online defragmenter with default throttling
+    public Defragmenter.Report defragment() {
+        return new Defragmenter(this).run();
+    }
+
+    // Checker hooks: repair side, called from a single thread
+    Inode loadInode(int inodeNum) {
+        return getInode(inodeNum);
+    }
+
+    Directory loadDirectory(int inodeNum) {
+        return getDirectory(inodeNum);
+    }
+
+    byte[] loadBlock(int blockNum) {
+        return readBlock(blockNum);
+    }
+
+    int allocateBlockForRepair(byte[] data) {
+        int blockNum = allocateBlockNumber();
+        if (blockNum >= 0) {
+            blockStorage.put(blockNum, Arrays.copyOf(data, data.length));
+        }
+        return blockNum;
+    }
+
+    Directory lostAndFound() {
+        Inode inode = resolvePath("/lost+found");
+        if (inode == null) {
+            createDirectory("/lost+found", 0, 0);
+            inode = resolvePath("/lost+found");
+        }
+        return inode == null ? null : getDirectory(inode.getInodeNumber());
+    }
+
+    // Recompute every free counter from the (repaired) bitmaps, keeping
+    // the dirty flags an incremental check still depends on
+    void rebuildCounters() {
+        loadBitmaps();
+        superblock.setFreeCounts(blockBitmap.getFreeCount(),
+                inodeBitmap.getFreeCount());
+        GroupDescriptor[] rebuilt = buildGroupDescriptors();
+        for (int g = 0; g < rebuilt.length; g++) {
+            rebuilt[g].setDirty(groups[g].isDirty());
+        }
+        groups = rebuilt;
+    }
+
     // Helper: Resolve path to inode
     private Inode resolvePath(String path) {
         if (path.equals("/")) {
-            return inodeTable.get(ROOT_INODE);
+            return getInode(ROOT_INODE);
         }
 
         String[] parts = parsePath(path);
-        Inode current = inodeTable.get(ROOT_INODE);
+        Inode current = getInode(ROOT_INODE);
 
         for (String part : parts) {
             if (current.getType() != Inode.FileType.DIRECTORY) {
@@ -286,7 +1355,7 @@ public class FileSystem {
                 return null;
             }
 
-            current = inodeTable.get(entry.getInodeNumber());
+            current = getInode(entry.getInodeNumber());
             if (current == null) {
                 return null;
             }
@@ -310,8 +1379,25 @@ public class FileSystem {
     }
 
     private Directory getDirectory(int inodeNum) {
-        return directoryCache.computeIfAbsent(inodeNum,
-                k -> new Directory(inodeTable.get(k)));
+        Directory dir = directoryCache.get(inodeNum);
+        if (dir != null) {
+            return dir;
+        }
+
+        Inode inode = getInode(inodeNum);
+        List<DirectoryEntry> entries = null;
+        if (image != null) {
+            try {
+                entries = image.readDirectory(inodeNum);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        dir = entries == null ? new Directory(inode)
+                : new Directory(inode, entries);
+        dir.setClock(clock);
+        directoryCache.put(inodeNum, dir);
+        return dir;
     }
 
     // Get file system statistics
@@ -325,7 +1411,7 @@ public class FileSystem {
                 superblock.getBlockSize(),
                 superblock.getFreeBlocks(),
                 superblock.getFreeInodes(),
-                inodeTable.size(),
+                countUsedInodes(),
                 superblock.getState());
     }
 }
@@ -0,0 +1,536 @@
+package file_structure;
+
+// FileSystemChecker.java - Consistency checker and repair tool (fsck)
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Lock;
+import java.util.function.IntConsumer;
+
+public class FileSystemChecker {
+    // FULL walks the whole tree and rebuilds the bitmaps from scratch.
+    // INCREMENTAL only looks at groups flagged dirty since the last clean
+    // unmount; it verifies those groups' inodes, directories and counters,
+    // but finding orphans and leaked blocks needs the global walk of FULL.
+    public enum Mode {
+        FULL,
+        INCREMENTAL
+    }
+
+    public static class Report {
+        private List<String> problems = Collections.synchronizedList(
+                new ArrayList<>());
+        private int groupsChecked;
+        private int orphanedInodes;
+        private int leakedBlocks;
+        private int danglingEntries;
+        private boolean repaired;
+
+        private void problem(String message) {
+            problems.add(message);
+        }
+
+        public boolean isClean() {
+            return problems.isEmpty();
+        }
+
+        public List<String> getProblems() {
+            return new ArrayList<>(problems);
+        }
+
+        public int getGroupsChecked() {
+            return groupsChecked;
+        }
+
+        public int getOrphanedInodes() {
+            return orphanedInodes;
+        }
+
+        public int getLeakedBlocks() {
+            return leakedBlocks;
+        }
+
+        public int getDanglingEntries() {
+            return danglingEntries;
+        }
+
+        public boolean isRepaired() {
+            return repaired;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(
+                    "fsck: %d groups checked, %d problems " +
+                            "(%d orphaned inodes, %d leaked blocks, " +
+                            "%d dangling entries)%s",
+                    groupsChecked, problems.size(), orphanedInodes,
+                    leakedBlocks, danglingEntries,
+                    repaired && !problems.isEmpty() ? ", repaired" : "");
+        }
+    }
+
+    // A directory entry that has to be removed
+    private static class Dangling {
+        private int dirInode;
+        private String name;
+
+        Dangling(int dirInode, String name) {
+            this.dirInode = dirInode;
+            this.name = name;
+        }
+    }
+
+    private FileSystem fs;
+    private ForkJoinPool pool;
+    private Superblock superblock;
+    private Bitmap inodeBitmap;
+    private Bitmap blockBitmap;
+
+    // Findings gathered by the parallel scan, applied by repair()
+    private Map<Integer, AtomicInteger> nameCounts;
+    private Map<Integer, Integer> expectedParent;
+    private Map<Integer, Integer> blockOwners;
+    private Queue<Dangling> danglingEntries;
+    private Queue<Integer> wrongParents;
+    private Queue<Integer> unreachable;
+    private List<Integer> orphans;
+    private Queue<Integer> missingInodeBits;
+    private Queue<Integer> staleInodeBits;
+    private Queue<int[]> badPointers; // {inode, logical block}
+    private Queue<int[]> duplicateBlocks; // {inode, logical block}
+    private Queue<Integer> missingBlockBits;
+    private Queue<Integer> leakedBlocks;
+    private Queue<Integer> wrongLinkCounts;
+
+    public FileSystemChecker(FileSystem fs) {
+        this(fs, ForkJoinPool.commonPool());
+    }
+
+    public FileSystemChecker(FileSystem fs, ForkJoinPool pool) {
+        this.fs = fs;
+        this.pool = pool;
+    }
+
+    // Scan and repair run under the file system lock, so async operations
+    // and the defragmenter wait instead of racing the checker
+    public Report run(Mode mode, boolean repair) {
+        Lock lock = fs.getLock();
+        lock.lock();
+        try {
+            return check(mode, repair);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private Report check(Mode mode, boolean repair) {
+        // Buffered data has no blocks yet, push it out so the scan sees it
+        fs.flush();
+
+        superblock = fs.getSuperblock();
+        inodeBitmap = fs.getInodeBitmap();
+        blockBitmap = fs.getBlockBitmap();
+        nameCounts = new ConcurrentHashMap<>();
+        expectedParent = new ConcurrentHashMap<>();
+        blockOwners = new ConcurrentHashMap<>();
+        danglingEntries = new ConcurrentLinkedQueue<>();
+        wrongParents = new ConcurrentLinkedQueue<>();
+        unreachable = new ConcurrentLinkedQueue<>();
+        orphans = new ArrayList<>();
+        missingInodeBits = new ConcurrentLinkedQueue<>();
+        staleInodeBits = new ConcurrentLinkedQueue<>();
+        badPointers = new ConcurrentLinkedQueue<>();
+        duplicateBlocks = new ConcurrentLinkedQueue<>();
+        missingBlockBits = new ConcurrentLinkedQueue<>();
+        leakedBlocks = new ConcurrentLinkedQueue<>();
+        wrongLinkCounts = new ConcurrentLinkedQueue<>();
+
+        Report report = new Report();
+        List<Integer> groups = new ArrayList<>();
+        GroupDescriptor[] descriptors = fs.getGroupDescriptors();
+        for (int g = 0; g < descriptors.length; g++) {
+            if (mode == Mode.FULL || descriptors[g].isDirty()) {
+                groups.add(g);
+            }
+        }
+        report.groupsChecked = groups.size();
+
+        if (mode == Mode.FULL) {
+            int root = fs.getRootInodeNumber();
+            expectedParent.put(root, root);
+            pool.invoke(new WalkDirectory(root, report));
+            invokeForGroups(groups, g -> scanInodes(g, true, report));
+            findOrphans(report);
+            invokeForGroups(groups, g -> scanBlocks(g, report));
+        } else {
+            invokeForGroups(groups, g -> scanInodes(g, false, report));
+        }
+        checkCounters(groups, report);
+
+        if (repair) {
+            repair(report);
+            fs.rebuildCounters();
+            report.repaired = true;
+        }
+        return report;
+    }
+
+    // Pass 1: walk the tree from the root, counting names per inode and
+    // flagging entries that point nowhere
+    private class WalkDirectory extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private int dirInode;
+        private Report report;
+
+        WalkDirectory(int dirInode, Report report) {
+            this.dirInode = dirInode;
+            this.report = report;
+        }
+
+        @Override
+        protected void compute() {
+            List<WalkDirectory> children = new ArrayList<>();
+            for (DirectoryEntry entry : fs.peekDirectory(dirInode)) {
+                String name = entry.getName();
+                int target = entry.getInodeNumber();
+
+                if (name.equals("..")) {
+                    if (target != expectedParent.get(dirInode)) {
+                        report.problem(String.format(
+                                "Directory %d: '..' points to %d, expected %d",
+                                dirInode, target,
+                                expectedParent.get(dirInode)));
+                        wrongParents.add(dirInode);
+                    }
+                    continue;
+                }
+                if (name.equals(".")) {
+                    continue;
+                }
+
+                Inode inode = fs.peekInode(target);
+                if (inode == null) {
+                    danglingEntry(entry, "points to free inode " + target);
+                    continue;
+                }
+                if (inode.getType() == Inode.FileType.DIRECTORY) {
+                    // A directory may only be reached once
+                    if (expectedParent.putIfAbsent(target, dirInode) != null) {
+                        danglingEntry(entry, "is an extra link to directory "
+                                + target);
+                        continue;
+                    }
+                    children.add(new WalkDirectory(target, report));
+                }
+                nameCounts.computeIfAbsent(target, k -> new AtomicInteger())
+                        .incrementAndGet();
+            }
+            invokeAll(children);
+        }
+
+        private void danglingEntry(DirectoryEntry entry, String reason) {
+            report.problem(String.format("Directory %d: entry '%s' %s",
+                    dirInode, entry.getName(), reason));
+            danglingEntries.add(new Dangling(dirInode, entry.getName()));
+        }
+    }
+
+    // Pass 2: compare every inode in a group against the bitmap and claim
+    // the blocks it points to
+    private void scanInodes(int group, boolean full, Report report) {
+        int perGroup = superblock.getInodesPerGroup();
+        int first = Math.max(group * perGroup, 2);
+        int last = (int) Math.min((long) (group + 1) * perGroup,
+                superblock.getTotalInodes());
+        int root = fs.getRootInodeNumber();
+
+        for (int inodeNum = first; inodeNum < last; inodeNum++) {
+            Inode inode = fs.peekInode(inodeNum);
+            boolean allocated = inodeBitmap.isAllocated(inodeNum);
+
+            if (inode == null) {
+                if (allocated) {
+                    report.problem("Inode " + inodeNum
+                            + " marked in use but has no record");
+                    staleInodeBits.add(inodeNum);
+                }
+                continue;
+            }
+
+            if (full) {
+                boolean reachable = inodeNum == root
+                        || nameCounts.containsKey(inodeNum);
+                if (!reachable) {
+                    if (!allocated) {
+                        continue; // Leftover record of a freed inode
+                    }
+                    unreachable.add(inodeNum);
+                } else if (!allocated) {
+                    report.problem("Inode " + inodeNum
+                            + " is in use but marked free");
+                    missingInodeBits.add(inodeNum);
+                }
+
+                if (inode.getType() == Inode.FileType.REGULAR_FILE
+                        && reachable) {
+                    int names = nameCounts.get(inodeNum).get();
+                    if (inode.getLinkCount() != names) {
+                        report.problem(String.format(
+                                "Inode %d: link count %d, %d names",
+                                inodeNum, inode.getLinkCount(), names));
+                        wrongLinkCounts.add(inodeNum);
+                    }
+                }
+            } else {
+                if (!allocated) {
+                    continue; // Cannot tell stale from live without a walk
+                }
+                if (inode.getType() == Inode.FileType.DIRECTORY) {
+                    checkEntries(inodeNum, report);
+                }
+            }
+
+            checkBlockPointers(inode, full, report);
+        }
+    }
+
+    // Only the top of an unreachable subtree is an orphan; whatever hangs
+    // below an orphaned directory gets reconnected along with it
+    private void findOrphans(Report report) {
+        List<Integer> candidates = new ArrayList<>(unreachable);
+        Collections.sort(candidates);
+        for (int inodeNum : candidates) {
+            if (nameCounts.containsKey(inodeNum)
+                    || expectedParent.containsKey(inodeNum)) {
+                continue; // Reached from an earlier orphan
+            }
+            report.problem("Inode " + inodeNum
+                    + " is not referenced by any directory");
+            report.orphanedInodes++;
+            orphans.add(inodeNum);
+
+            Inode inode = fs.peekInode(inodeNum);
+            if (inode.getType() == Inode.FileType.DIRECTORY) {
+                // Keep whatever .. says, repair re-parents it anyway
+                DirectoryEntry parent = null;
+                for (DirectoryEntry e : fs.peekDirectory(inodeNum)) {
+                    if (e.getName().equals("..")) {
+                        parent = e;
+                    }
+                }
+                expectedParent.put(inodeNum,
+                        parent == null ? inodeNum : parent.getInodeNumber());
+                pool.invoke(new WalkDirectory(inodeNum, report));
+            }
+        }
+    }
+
+    private void checkBlockPointers(Inode inode, boolean full, Report report) {
+        int inodeNum = inode.getInodeNumber();
+        int blockSize = superblock.getBlockSize();
+        long usedBlocks = (inode.getSize() + blockSize - 1) / blockSize;
+        for (int i = 0; i < 12; i++) {
+            int blockNum = inode.getBlockNumber(i);
+            if (blockNum < 0) {
+                continue;
+            }
+            if (blockNum < 1 || blockNum >= superblock.getTotalBlocks()) {
+                report.problem(String.format(
+                        "Inode %d: block %d out of range", inodeNum, blockNum));
+                badPointers.add(new int[] { inodeNum, i });
+                continue;
+            }
+            if (inode.getType() == Inode.FileType.REGULAR_FILE
+                    && i >= usedBlocks) {
+                // Writes never map blocks beyond the size, so this is
+                // corruption; unclaimed, it counts as leaked in FULL mode
+                // and gets freed
+                report.problem(String.format(
+                        "Inode %d: block %d lies past the end of the file",
+                        inodeNum, blockNum));
+                badPointers.add(new int[] { inodeNum, i });
+                if (!full && blockBitmap.isAllocated(blockNum)) {
+                    leakedBlocks.add(blockNum);
+                }
+                continue;
+            }
+            if (full) {
+                Integer owner = blockOwners.putIfAbsent(blockNum, inodeNum);
+                if (owner != null) {
+                    report.problem(String.format(
+                            "Inode %d: block %d already used by inode %d",
+                            inodeNum, blockNum, owner));
+                    duplicateBlocks.add(new int[] { inodeNum, i });
+                    continue;
+                }
+            }
+            if (!blockBitmap.isAllocated(blockNum)) {
+                report.problem(String.format(
+                        "Inode %d: block %d is in use but marked free",
+                        inodeNum, blockNum));
+                missingBlockBits.add(blockNum);
+            }
+        }
+    }
+
+    // Incremental mode: entries of a directory must point at live inodes
+    private void checkEntries(int dirInode, Report report) {
+        for (DirectoryEntry entry : fs.peekDirectory(dirInode)) {
+            int target = entry.getInodeNumber();
+            if (fs.peekInode(target) == null
+                    || !inodeBitmap.isAllocated(target)) {
+                report.problem(String.format(
+                        "Directory %d: entry '%s' points to free inode %d",
+                        dirInode, entry.getName(), target));
+                danglingEntries.add(new Dangling(dirInode, entry.getName()));
+            }
+        }
+    }
+
+    // Pass 3: any block marked in use that no inode claimed has leaked
+    private void scanBlocks(int group, Report report) {
+        int perGroup = superblock.getBlocksPerGroup();
+        int first = Math.max(group * perGroup, 1); // Block 0 is reserved
+        int last = (int) Math.min((long) (group + 1) * perGroup,
+                superblock.getTotalBlocks());
+
+        for (int blockNum = first; blockNum < last; blockNum++) {
+            if (blockBitmap.isAllocated(blockNum)
+                    && !blockOwners.containsKey(blockNum)) {
+                report.problem("Block " + blockNum
+                        + " marked in use but not owned by any inode");
+                synchronized (report) {
+                    report.leakedBlocks++;
+                }
+                leakedBlocks.add(blockNum);
+            }
+        }
+    }
+
+    // Free counters must match the bitmaps, per group and overall
+    private void checkCounters(List<Integer> groups, Report report) {
+        GroupDescriptor[] descriptors = fs.getGroupDescriptors();
+        int blocksPerGroup = superblock.getBlocksPerGroup();
+        int inodesPerGroup = superblock.getInodesPerGroup();
+        int totalBlocks = (int) superblock.getTotalBlocks();
+        int totalInodes = (int) superblock.getTotalInodes();
+
+        for (int g : groups) {
+            int firstBlock = g * blocksPerGroup;
+            int lastBlock = Math.min(firstBlock + blocksPerGroup, totalBlocks);
+            int firstInode = Math.min(g * inodesPerGroup, totalInodes);
+            int lastInode = Math.min(firstInode + inodesPerGroup, totalInodes);
+            int freeBlocks = lastBlock - firstBlock
+                    - blockBitmap.countAllocated(firstBlock, lastBlock);
+            int freeInodes = lastInode - firstInode
+                    - inodeBitmap.countAllocated(firstInode, lastInode);
+            if (descriptors[g].getFreeBlocks() != freeBlocks
+                    || descriptors[g].getFreeInodes() != freeInodes) {
+                report.problem(String.format(
+                        "Group %d: counters %d/%d free blocks/inodes, " +
+                                "bitmap says %d/%d",
+                        g, descriptors[g].getFreeBlocks(),
+                        descriptors[g].getFreeInodes(), freeBlocks, freeInodes));
+            }
+        }
+
+        long groupBlocks = 0;
+        long groupInodes = 0;
+        for (GroupDescriptor gd : descriptors) {
+            groupBlocks += gd.getFreeBlocks();
+            groupInodes += gd.getFreeInodes();
+        }
+        if (superblock.getFreeBlocks() != groupBlocks
+                || superblock.getFreeInodes() != groupInodes) {
+            report.problem(String.format(
+                    "Superblock: %d/%d free blocks/inodes, groups say %d/%d",
+                    superblock.getFreeBlocks(), superblock.getFreeInodes(),
+                    groupBlocks, groupInodes));
+        }
+    }
+
+    // Apply the fixes; runs on the calling thread
+    private void repair(Report report) {
+        for (Dangling dangling : danglingEntries) {
+            fs.loadDirectory(dangling.dirInode).removeEntry(dangling.name);
+            fs.markInodeDirty(dangling.dirInode);
+            report.danglingEntries++;
+        }
+        for (int dirInode : wrongParents) {
+            fs.loadDirectory(dirInode).setParent(expectedParent.get(dirInode));
+            fs.markInodeDirty(dirInode);
+        }
+
+        for (int inodeNum : staleInodeBits) {
+            inodeBitmap.free(inodeNum);
+        }
+        for (int inodeNum : missingInodeBits) {
+            inodeBitmap.reserve(inodeNum);
+        }
+        for (int blockNum : leakedBlocks) {
+            blockBitmap.free(blockNum);
+        }
+        for (int blockNum : missingBlockBits) {
+            blockBitmap.reserve(blockNum);
+        }
+        for (int[] bad : badPointers) {
+            fs.loadInode(bad[0]).setBlockNumber(bad[1], -1);
+            fs.markInodeDirty(bad[0]);
+        }
+
+        // Give every extra owner of a shared block its own copy
+        fs.rebuildCounters();
+        for (int[] dup : duplicateBlocks) {
+            Inode inode = fs.loadInode(dup[0]);
+            int shared = inode.getBlockNumber(dup[1]);
+            int copy = fs.allocateBlockForRepair(fs.loadBlock(shared));
+            inode.setBlockNumber(dup[1], copy);
+            fs.markInodeDirty(dup[0]);
+        }
+
+        // Reconnect orphans under /lost+found rather than dropping data
+        if (!orphans.isEmpty()) {
+            Directory lostAndFound = fs.lostAndFound();
+            for (int inodeNum : orphans) {
+                Inode inode = fs.loadInode(inodeNum);
+                boolean isDir = inode.getType() == Inode.FileType.DIRECTORY;
+                lostAndFound.addEntry(new DirectoryEntry(inodeNum,
+                        "#" + inodeNum, (byte) (isDir ? 2 : 1)));
+                fs.markInodeDirty(lostAndFound.getInode().getInodeNumber());
+                if (isDir) {
+                    fs.loadDirectory(inodeNum).setParent(
+                            lostAndFound.getInode().getInodeNumber());
+                    fs.markInodeDirty(inodeNum);
+                } else {
+                    nameCounts.put(inodeNum, new AtomicInteger(1));
+                    wrongLinkCounts.add(inodeNum);
+                }
+            }
+        }
+
+        for (int inodeNum : wrongLinkCounts) {
+            fs.loadInode(inodeNum).setLinkCount(nameCounts.get(inodeNum).get());
+            fs.markInodeDirty(inodeNum);
+        }
+    }
+
+    private void invokeForGroups(List<Integer> groups, IntConsumer task) {
+        List<RecursiveAction> tasks = new ArrayList<>();
+        for (int g : groups) {
+            tasks.add(new RecursiveAction() {
+                @Override
+                protected void compute() {
+                    task.accept(g);
+                }
+            });
+        }
+        pool.invoke(new RecursiveAction() {
+            @Override
+            protected void compute() {
+                invokeAll(tasks);
+            }
+        });
+    }
+}
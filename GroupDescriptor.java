@@ -0,0 +1,66 @@
+package file_structure;
+
+// GroupDescriptor.java - Per block group allocation counters
+import java.nio.ByteBuffer;
+
+public class GroupDescriptor {
+    public static final int SIZE = 16; // Bytes per on-disk descriptor
+
+    // Group changed since the last clean unmount or check
+    public static final int FLAG_DIRTY = 0x1;
+
+    private int freeBlocks; // Free blocks in this group
+    private int freeInodes; // Free inodes in this group
+    private int flags; // FLAG_* bits
+
+    public GroupDescriptor(int freeBlocks, int freeInodes) {
+        this.freeBlocks = freeBlocks;
+        this.freeInodes = freeInodes;
+    }
+
+    public void writeTo(ByteBuffer buf) {
+        buf.putInt(freeBlocks);
+        buf.putInt(freeInodes);
+        buf.putInt(flags);
+        buf.putInt(0); // Padding
+    }
+
+    public static GroupDescriptor readFrom(ByteBuffer buf) {
+        GroupDescriptor gd = new GroupDescriptor(buf.getInt(), buf.getInt());
+        gd.flags = buf.getInt();
+        buf.getInt();
+        return gd;
+    }
+
+    public void allocateBlock() {
+        freeBlocks--;
+    }
+
+    public void freeBlock() {
+        freeBlocks++;
+    }
+
+    public void allocateInode() {
+        freeInodes--;
+    }
+
+    public void freeInode() {
+        freeInodes++;
+    }
+
+    public boolean isDirty() {
+        return (flags & FLAG_DIRTY) != 0;
+    }
+
+    public void setDirty(boolean dirty) {
+        flags = dirty ? flags | FLAG_DIRTY : flags & ~FLAG_DIRTY;
+    }
+
+    public int getFreeBlocks() {
+        return freeBlocks;
+    }
+
+    public int getFreeInodes() {
+        return freeInodes;
+    }
+}
@@ -1,8 +1,12 @@
 package file_structure;
 
+import java.nio.ByteBuffer;
 import java.util.*;
 
 public class Inode {
+    // Bytes used by writeTo, the on-disk record may add trailing fields
+    public static final int ENCODED_SIZE = 116;
+
     private int inodeNumber;
     private FileType type;
     private int permissions; // Unix permissions (e.g., 0755)
@@ -53,6 +57,58 @@ public class Inode {
         this.tripleIndirect = -1;
     }
 
+    private Inode() {
+    }
+
+    // Serialize to the fixed-size on-disk record
+    public void writeTo(ByteBuffer buf) {
+        buf.putInt(inodeNumber);
+        buf.put((byte) (type.ordinal() + 1)); // 0 marks an unused record
+        buf.put(new byte[3]);
+        buf.putInt(permissions);
+        buf.putInt(uid);
+        buf.putInt(gid);
+        buf.putInt(linkCount);
+        buf.putLong(size);
+        buf.putLong(createdTime);
+        buf.putLong(modifiedTime);
+        buf.putLong(accessedTime);
+        for (int block : directBlocks) {
+            buf.putInt(block);
+        }
+        buf.putInt(singleIndirect);
+        buf.putInt(doubleIndirect);
+        buf.putInt(tripleIndirect);
+    }
+
+    // Deserialize an on-disk record, returns null for an unused record
+    public static Inode readFrom(ByteBuffer buf) {
+        Inode inode = new Inode();
+        inode.inodeNumber = buf.getInt();
+        int typeCode = buf.get();
+        buf.position(buf.position() + 3);
+        if (typeCode == 0) {
+            return null;
+        }
+        inode.type = FileType.values()[typeCode - 1];
+        inode.permissions = buf.getInt();
+        inode.uid = buf.getInt();
+        inode.gid = buf.getInt();
+        inode.linkCount = buf.getInt();
+        inode.size = buf.getLong();
+        inode.createdTime = buf.getLong();
+        inode.modifiedTime = buf.getLong();
+        inode.accessedTime = buf.getLong();
+        inode.directBlocks = new int[12];
+        for (int i = 0; i < 12; i++) {
+            inode.directBlocks[i] = buf.getInt();
+        }
+        inode.singleIndirect = buf.getInt();
+        inode.doubleIndirect = buf.getInt();
+        inode.tripleIndirect = buf.getInt();
+        return inode;
+    }
+
     // Add a block pointer
     public boolean addBlock(int blockNumber) {
         for (int i = 0; i < directBlocks.length; i++) {
@@ -74,6 +130,24 @@ public class Inode {
         return -1;
     }
 
+    // Point a logical block at a different physical block (-1 to clear)
+    public void setBlockNumber(int logicalBlock, int blockNumber) {
+        if (logicalBlock < 12) {
+            directBlocks[logicalBlock] = blockNumber;
+        }
+    }
+
+    // Swap in a whole new block mapping in one step, so a concurrent reader
+    // sees either the old mapping or the new one
+    public void replaceBlocks(int[] blocks) {
+        this.directBlocks = Arrays.copyOf(blocks, 12);
+    }
+
+    // Drop all block pointers (caller is responsible for freeing the blocks)
+    public void clearBlocks() {
+        Arrays.fill(directBlocks, -1);
+    }
+
     public void updateAccessTime() {
         this.accessedTime = System.currentTimeMillis();
     }
@@ -82,6 +156,15 @@ public class Inode {
         this.modifiedTime = System.currentTimeMillis();
     }
 
+    // Variants taking the time from the caller's clock
+    public void updateAccessTime(long now) {
+        this.accessedTime = now;
+    }
+
+    public void updateModifiedTime(long now) {
+        this.modifiedTime = now;
+    }
+
     // Getters and setters
     public int getInodeNumber() {
         return inodeNumber;
@@ -119,6 +202,10 @@ public class Inode {
         linkCount--;
     }
 
+    public void setLinkCount(int linkCount) {
+        this.linkCount = linkCount;
+    }
+
     public int getUid() {
         return uid;
     }
@@ -130,4 +217,12 @@ public class Inode {
     public long getModifiedTime() {
         return modifiedTime;
     }
+
+    public long getAccessedTime() {
+        return accessedTime;
+    }
+
+    public long getCreatedTime() {
+        return createdTime;
+    }
 }
@@ -0,0 +1,202 @@
+package file_structure;
+
+// InodeChannel.java - Seekable byte channel over an inode's block mapping
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+
+public class InodeChannel implements SeekableByteChannel {
+    private FileSystem fs;
+    private Inode inode;
+    private int blockSize;
+    private long position;
+    private boolean open;
+
+    public InodeChannel(FileSystem fs, Inode inode) {
+        this.fs = fs;
+        this.inode = inode;
+        this.blockSize = fs.getSuperblock().getBlockSize();
+        this.open = true;
+    }
+
+    // Copies at most one block at a time straight out of block storage
+    @Override
+    public int read(ByteBuffer dst) throws IOException {
+        ensureOpen();
+        long size = inode.getSize();
+        if (position >= size) {
+            return -1;
+        }
+
+        int total = 0;
+        while (dst.hasRemaining() && position < size) {
+            int logical = (int) (position / blockSize);
+            int offset = (int) (position % blockSize);
+            int length = (int) Math.min(Math.min(blockSize - offset,
+                    dst.remaining()), size - position);
+
+            int blockNum = inode.getBlockNumber(logical);
+            if (blockNum < 0) {
+                dst.put(new byte[length]); // Hole
+            } else {
+                dst.put(fs.loadBlock(blockNum), offset, length);
+            }
+            position += length;
+            total += length;
+        }
+
+        fs.touchAccess(inode);
+        return total;
+    }
+
+    // Read-modify-write one block at a time, allocating blocks on demand
+    @Override
+    public int write(ByteBuffer src) throws IOException {
+        ensureOpen();
+        int total = 0;
+        while (src.hasRemaining()) {
+            int logical = (int) (position / blockSize);
+            int offset = (int) (position % blockSize);
+            int length = Math.min(blockSize - offset, src.remaining());
+
+            byte[] block = mapBlock(logical);
+            src.get(block, offset, length);
+            fs.storeBlock(inode, inode.getBlockNumber(logical), block);
+
+            position += length;
+            total += length;
+            if (position > inode.getSize()) {
+                inode.setSize(position);
+            }
+        }
+
+        fs.touchModified(inode);
+        return total;
+    }
+
+    // Write count bytes starting at position to target without moving this
+    // channel's position; each block is handed over as-is, no staging copy
+    public long transferTo(long position, long count,
+            WritableByteChannel target) throws IOException {
+        ensureOpen();
+        long end = Math.min(inode.getSize(), position + count);
+        long pos = position;
+        while (pos < end) {
+            int logical = (int) (pos / blockSize);
+            int offset = (int) (pos % blockSize);
+            int length = (int) Math.min(blockSize - offset, end - pos);
+
+            int blockNum = inode.getBlockNumber(logical);
+            ByteBuffer buf = blockNum < 0
+                    ? ByteBuffer.allocate(length)
+                    : ByteBuffer.wrap(fs.loadBlock(blockNum), offset, length);
+            while (buf.hasRemaining()) {
+                target.write(buf);
+            }
+            pos += length;
+        }
+        return pos - position;
+    }
+
+    // Read up to count bytes from src into the file at position, filling
+    // each block directly from the source channel
+    public long transferFrom(ReadableByteChannel src, long position,
+            long count) throws IOException {
+        ensureOpen();
+        long end = position + count;
+        long pos = position;
+        long sizeBefore = inode.getSize();
+        boolean eof = false;
+        while (pos < end && !eof) {
+            int logical = (int) (pos / blockSize);
+            int offset = (int) (pos % blockSize);
+            int length = (int) Math.min(blockSize - offset, end - pos);
+
+            byte[] block = mapBlock(logical);
+            ByteBuffer buf = ByteBuffer.wrap(block, offset, length);
+            while (buf.hasRemaining()) {
+                if (src.read(buf) < 0) {
+                    eof = true;
+                    break;
+                }
+            }
+
+            int read = buf.position() - offset;
+            if (read > 0) {
+                fs.storeBlock(inode, inode.getBlockNumber(logical), block);
+                pos += read;
+            }
+        }
+
+        // Sets the new size and gives back any block mapped for data that
+        // never arrived; a transfer that delivered nothing leaves the size
+        // as it was, even when it started past the end of the file
+        fs.truncateInode(inode,
+                pos > position ? Math.max(pos, sizeBefore) : sizeBefore);
+        return pos - position;
+    }
+
+    @Override
+    public long position() throws IOException {
+        ensureOpen();
+        return position;
+    }
+
+    @Override
+    public SeekableByteChannel position(long newPosition) throws IOException {
+        ensureOpen();
+        if (newPosition < 0) {
+            throw new IllegalArgumentException("Negative position");
+        }
+        this.position = newPosition;
+        return this;
+    }
+
+    @Override
+    public long size() throws IOException {
+        ensureOpen();
+        return inode.getSize();
+    }
+
+    @Override
+    public SeekableByteChannel truncate(long size) throws IOException {
+        ensureOpen();
+        if (size < 0) {
+            throw new IllegalArgumentException("Negative size");
+        }
+        if (size < inode.getSize()) {
+            fs.truncateInode(inode, size);
+        }
+        position = Math.min(position, size);
+        return this;
+    }
+
+    @Override
+    public boolean isOpen() {
+        return open;
+    }
+
+    @Override
+    public void close() {
+        open = false;
+    }
+
+    // Helper: Block backing a logical index, allocated if still a hole
+    private byte[] mapBlock(int logical) throws IOException {
+        if (logical >= 12) {
+            throw new IOException("File exceeds " + 12 * blockSize
+                    + " bytes (direct blocks only)");
+        }
+        if (inode.getBlockNumber(logical) < 0
+                && fs.mapBlock(inode, logical) < 0) {
+            throw new IOException("No space left on file system");
+        }
+        return fs.loadBlock(inode.getBlockNumber(logical));
+    }
+
+    private void ensureOpen() throws ClosedChannelException {
+        if (!open) {
+            throw new ClosedChannelException();
+        }
+    }
+}
@@ -0,0 +1,231 @@
+package file_structure;
+
+// IoScheduler.java - Elevator I/O scheduler with request merging
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+public class IoScheduler implements Closeable {
+    // Upper bound on requests taken off the queue per dispatch round
+    private static final int MAX_BATCH = 4096;
+
+    private static class Request {
+        private int blockNum;
+        private byte[] data; // null for reads
+        private CompletableFuture<byte[]> future = new CompletableFuture<>();
+
+        Request(int blockNum, byte[] data) {
+            this.blockNum = blockNum;
+            this.data = data;
+        }
+    }
+
+    // Queued to wake the dispatcher on close
+    private static final Request SHUTDOWN = new Request(-1, null);
+
+    private DiskImage image;
+    private BlockingQueue<Request> queue;
+    private Thread dispatcher;
+    private boolean running;
+    // Makes submit's running check and enqueue atomic with close, so
+    // nothing can be queued behind SHUTDOWN and never complete
+    private ReentrantLock stateLock = new ReentrantLock();
+    private int head; // Block where the last sweep stopped
+
+    private AtomicLong requests = new AtomicLong();
+    private AtomicLong deviceOps = new AtomicLong();
+
+    public IoScheduler(DiskImage image) {
+        this.image = image;
+        this.queue = new LinkedBlockingQueue<>();
+        this.running = true;
+        this.dispatcher = new Thread(this::dispatchLoop, "io-scheduler");
+        dispatcher.setDaemon(true);
+        dispatcher.start();
+    }
+
+    public CompletableFuture<byte[]> read(int blockNum) {
+        return submit(new Request(blockNum, null));
+    }
+
+    // Completes once the block is on the image
+    public CompletableFuture<byte[]> write(int blockNum, byte[] data) {
+        return submit(new Request(blockNum, data));
+    }
+
+    // Requests submitted vs. positioned reads/writes actually issued
+    public long getRequestCount() {
+        return requests.get();
+    }
+
+    public long getDeviceOperationCount() {
+        return deviceOps.get();
+    }
+
+    // Finish what is already queued, then stop the dispatcher
+    @Override
+    public void close() {
+        stateLock.lock();
+        try {
+            if (!running) {
+                return;
+            }
+            running = false;
+            queue.add(SHUTDOWN);
+        } finally {
+            stateLock.unlock();
+        }
+        try {
+            dispatcher.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private CompletableFuture<byte[]> submit(Request request) {
+        stateLock.lock();
+        try {
+            if (!running) {
+                request.future.completeExceptionally(
+                        new IllegalStateException("I/O scheduler is closed"));
+                return request.future;
+            }
+            requests.incrementAndGet();
+            queue.add(request);
+            return request.future;
+        } finally {
+            stateLock.unlock();
+        }
+    }
+
+    private void dispatchLoop() {
+        List<Request> batch = new ArrayList<>();
+        while (true) {
+            try {
+                batch.add(queue.take());
+            } catch (InterruptedException e) {
+                return;
+            }
+            queue.drainTo(batch, MAX_BATCH - 1);
+
+            boolean shutdown = batch.remove(SHUTDOWN);
+            dispatch(batch);
+            batch.clear();
+            if (shutdown) {
+                return;
+            }
+        }
+    }
+
+    // One round: reads first, then writes, each sorted and merged into
+    // contiguous runs. A read queued after a write to the same block is
+    // answered from that write, so arrival order is still respected.
+    private void dispatch(List<Request> batch) {
+        Map<Integer, byte[]> written = new HashMap<>();
+        Map<Integer, List<Request>> reads = new HashMap<>();
+        Map<Integer, Request> writes = new HashMap<>();
+        List<Request> superseded = new ArrayList<>();
+
+        for (Request r : batch) {
+            if (r.data != null) {
+                written.put(r.blockNum, r.data);
+                Request previous = writes.put(r.blockNum, r);
+                if (previous != null) {
+                    superseded.add(previous);
+                }
+            } else if (written.containsKey(r.blockNum)) {
+                byte[] data = written.get(r.blockNum);
+                r.future.complete(Arrays.copyOf(data, data.length));
+            } else {
+                reads.computeIfAbsent(r.blockNum, k -> new ArrayList<>())
+                        .add(r);
+            }
+        }
+
+        for (List<Integer> run : runs(elevatorOrder(reads.keySet()))) {
+            readRun(run, reads);
+        }
+        for (List<Integer> run : runs(elevatorOrder(writes.keySet()))) {
+            writeRun(run, writes);
+        }
+        for (Request r : superseded) {
+            r.future.complete(r.data);
+        }
+    }
+
+    private void readRun(List<Integer> run, Map<Integer, List<Request>> reads) {
+        try {
+            byte[][] blocks = image.readBlocks(run.get(0), run.size());
+            deviceOps.incrementAndGet();
+            for (int i = 0; i < run.size(); i++) {
+                List<Request> waiting = reads.get(run.get(i));
+                for (int j = 0; j < waiting.size(); j++) {
+                    // Each caller gets its own copy
+                    waiting.get(j).future.complete(j == 0 ? blocks[i]
+                            : Arrays.copyOf(blocks[i], blocks[i].length));
+                }
+            }
+        } catch (IOException e) {
+            for (int blockNum : run) {
+                for (Request r : reads.get(blockNum)) {
+                    r.future.completeExceptionally(new UncheckedIOException(e));
+                }
+            }
+        }
+        head = run.get(run.size() - 1);
+    }
+
+    private void writeRun(List<Integer> run, Map<Integer, Request> writes) {
+        byte[][] blocks = new byte[run.size()][];
+        for (int i = 0; i < run.size(); i++) {
+            blocks[i] = writes.get(run.get(i)).data;
+        }
+        try {
+            image.writeBlocks(run.get(0), blocks);
+            deviceOps.incrementAndGet();
+            for (int blockNum : run) {
+                Request r = writes.get(blockNum);
+                r.future.complete(r.data);
+            }
+        } catch (IOException e) {
+            for (int blockNum : run) {
+                writes.get(blockNum).future.completeExceptionally(
+                        new UncheckedIOException(e));
+            }
+        }
+        head = run.get(run.size() - 1);
+    }
+
+    // C-SCAN: sweep upwards from the head, then wrap to the lowest block
+    private List<Integer> elevatorOrder(Collection<Integer> blocks) {
+        List<Integer> sorted = new ArrayList<>(blocks);
+        Collections.sort(sorted);
+        int split = 0;
+        while (split < sorted.size() && sorted.get(split) < head) {
+            split++;
+        }
+        List<Integer> order = new ArrayList<>(sorted.subList(split,
+                sorted.size()));
+        order.addAll(sorted.subList(0, split));
+        return order;
+    }
+
+    // Split an ordered block list into runs of adjacent block numbers
+    private List<List<Integer>> runs(List<Integer> order) {
+        List<List<Integer>> result = new ArrayList<>();
+        List<Integer> current = null;
+        for (int blockNum : order) {
+            if (current == null
+                    || blockNum != current.get(current.size() - 1) + 1) {
+                current = new ArrayList<>();
+                result.add(current);
+            }
+            current.add(blockNum);
+        }
+        return result;
+    }
+}
@@ -1,8 +1,10 @@
 package file_structure;
 
 // Main.java - Demo and test program
+import java.io.*;
+
 public class Main {
-    public static void main(String[] args) {
+    public static void main(String[] args) throws IOException {
         // Create file system: 4KB blocks, 1000 blocks, 500 inodes
         FileSystem fs = new FileSystem(4096, 1000, 500);
 
@@ -65,8 +67,61 @@ public class Main {
         }
         System.out.println();
 
+        // Rename and hard link
+        System.out.println("Renaming and linking...");
+        fs.rename("/home/user/file1.txt", "/home/user/notes.txt");
+        fs.link("/home/user/notes.txt", "/var/log/notes.link");
+        System.out.println("✓ file1.txt renamed to notes.txt, " +
+                "linked as /var/log/notes.link");
+        System.out.println("Content via link: "
+                + new String(fs.readFile("/var/log/notes.link")));
+        System.out.println();
+
+        // Persist to an image and remount it
+        System.out.println("Saving to image and remounting...");
+        File image = File.createTempFile("fs-demo", ".img");
+        image.deleteOnExit();
+        fs.saveAs(image.getPath());
+        fs.unmount();
+        fs = FileSystem.mount(image.getPath());
+        fs.createDirectory("/tmp", 0, 0);
+        fs.createFile("/tmp/scratch", 0, 0);
+        fs.sync();
+        for (int i = 0; i < 6; i++) {
+            fs.createFile("/home/user/doc" + i + ".txt", 1000, 1000);
+        }
+        fs.unmount();
+        fs = FileSystem.mount(image.getPath());
+        System.out.println("✓ Remounted, needs check: " + fs.needsCheck());
+        System.out.println("Listing /home/user after remount:");
+        for (String file : fs.listDirectory("/home/user")) {
+            System.out.println("  - " + file);
+        }
+        System.out.println("Content after remount: "
+                + new String(fs.readFile("/home/user/notes.txt")));
+        System.out.println();
+
+        // Consistency check
+        System.out.println("Checking file system...");
+        System.out.println(fs.check(false));
+        System.out.println();
+
+        // Fragment free space, then compact it
+        System.out.println("Fragmenting and defragmenting...");
+        for (int i = 0; i < 10; i++) {
+            fs.createFile("/var/log/old" + i + ".log", 0, 0);
+            fs.writeFile("/var/log/old" + i + ".log", new byte[8192]);
+        }
+        for (int i = 0; i < 10; i += 2) {
+            fs.deleteFile("/var/log/old" + i + ".log");
+        }
+        System.out.println(fs.defragment());
+        System.out.println(fs.check(false));
+        System.out.println();
+
         // Final stats
         System.out.println(fs.getStats());
+        fs.unmount();
     }
 }
 
@@ -77,8 +132,8 @@ public class Main {
  * File System Stats:
  * Block Size: 4096 bytes
  * Free Blocks: 999
- * Free Inodes: 494
- * Total Files: 6
+ * Free Inodes: 497
+ * Total Files: 1
  * State: CLEAN
  * 
  * Creating directories...
@@ -107,10 +162,37 @@ public class Main {
  * Listing /home/user after deletion:
  * - file1.txt
  * 
+ * Renaming and linking...
+ * ✓ file1.txt renamed to notes.txt, linked as /var/log/notes.link
+ * Content via link: Hello, Linux File System!
+ * This is a test file.
+ * 
+ * Saving to image and remounting...
+ * ✓ Remounted, needs check: false
+ * Listing /home/user after remount:
+ * - notes.txt
+ * - doc0.txt
+ * - doc1.txt
+ * - doc2.txt
+ * - doc3.txt
+ * - doc4.txt
+ * - doc5.txt
+ * Content after remount: Hello, Linux File System!
+ * This is a test file.
+ * 
+ * Checking file system...
+ * fsck: 1 groups checked, 0 problems (0 orphaned inodes, 0 leaked blocks, 0 dangling entries)
+ * 
+ * Fragmenting and defragmenting...
+ * Defrag: moved 5 files (10 blocks)
+ *   before: 0/6 files fragmented (6 extents), 988 free blocks in 6 extents, largest 978 (free space fragmentation 0.01)
+ *   after:  0/6 files fragmented (6 extents), 988 free blocks in 1 extents, largest 988 (free space fragmentation 0.00)
+ * fsck: 1 groups checked, 0 problems (0 orphaned inodes, 0 leaked blocks, 0 dangling entries)
+ * 
  * File System Stats:
  * Block Size: 4096 bytes
- * Free Blocks: 998
- * Free Inodes: 495
- * Total Files: 5
- * State: CLEAN
+ * Free Blocks: 988
+ * Free Inodes: 478
+ * Total Files: 20
+ * State: DIRTY
  */
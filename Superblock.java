@@ -1,6 +1,8 @@
 package file_structure;
 
 // Superblock.java - File System Metadata
+import java.nio.ByteBuffer;
+
 public class Superblock {
     private int magicNumber; // File system identifier (0xEF53 for ext2)
     private int blockSize; // Typically 4096 bytes
@@ -12,6 +14,8 @@ public class Superblock {
     private long mountTime; // Last mount timestamp
     private int mountCount; // Number of times mounted
     private FileSystemState state; // CLEAN or DIRTY
+    private int blocksPerGroup; // Blocks covered by one group descriptor
+    private int inodesPerGroup; // Inodes covered by one group descriptor
 
     public enum FileSystemState {
         CLEAN, DIRTY
@@ -23,9 +27,61 @@ public class Superblock {
         this.totalBlocks = totalBlocks;
         this.freeBlocks = totalBlocks - 1; // Reserve first block
         this.totalInodes = totalInodes;
-        this.freeInodes = totalInodes - 1; // Reserve root inode
+        this.freeInodes = totalInodes - 2; // Reserve inodes 0 and 1
         this.firstDataBlock = 1;
         this.state = FileSystemState.CLEAN;
+
+        // One bitmap block describes a group, as in ext2
+        this.blocksPerGroup = (int) Math.min(totalBlocks, blockSize * 8L);
+        int groups = (int) ((totalBlocks + blocksPerGroup - 1) / blocksPerGroup);
+        this.inodesPerGroup = (int) ((totalInodes + groups - 1) / groups);
+    }
+
+    private Superblock() {
+    }
+
+    // Serialize to the on-disk layout
+    public void writeTo(ByteBuffer buf) {
+        buf.putInt(magicNumber);
+        buf.putInt(blockSize);
+        buf.putLong(totalBlocks);
+        buf.putLong(freeBlocks);
+        buf.putLong(totalInodes);
+        buf.putLong(freeInodes);
+        buf.putInt(firstDataBlock);
+        buf.putLong(mountTime);
+        buf.putInt(mountCount);
+        buf.putInt(state.ordinal());
+        buf.putInt(blocksPerGroup);
+        buf.putInt(inodesPerGroup);
+    }
+
+    // Deserialize from the on-disk layout, returns null on a bad magic number
+    public static Superblock readFrom(ByteBuffer buf) {
+        Superblock sb = new Superblock();
+        sb.magicNumber = buf.getInt();
+        if (sb.magicNumber != 0xEF53) {
+            return null;
+        }
+        sb.blockSize = buf.getInt();
+        sb.totalBlocks = buf.getLong();
+        sb.freeBlocks = buf.getLong();
+        sb.totalInodes = buf.getLong();
+        sb.freeInodes = buf.getLong();
+        sb.firstDataBlock = buf.getInt();
+        sb.mountTime = buf.getLong();
+        sb.mountCount = buf.getInt();
+        sb.state = FileSystemState.values()[buf.getInt()];
+        sb.blocksPerGroup = buf.getInt();
+        sb.inodesPerGroup = buf.getInt();
+        return sb;
+    }
+
+    // Record a mount; the file system stays DIRTY until a clean unmount
+    public void markMounted() {
+        this.mountTime = System.currentTimeMillis();
+        this.mountCount++;
+        this.state = FileSystemState.DIRTY;
     }
 
     public boolean allocateBlock() {
@@ -56,11 +112,41 @@ public class Superblock {
         }
     }
 
+    // Overwrite the free counters, used when the checker rebuilds them
+    public void setFreeCounts(long freeBlocks, long freeInodes) {
+        this.freeBlocks = freeBlocks;
+        this.freeInodes = freeInodes;
+    }
+
     // Getters
     public int getBlockSize() {
         return blockSize;
     }
 
+    public long getTotalBlocks() {
+        return totalBlocks;
+    }
+
+    public long getTotalInodes() {
+        return totalInodes;
+    }
+
+    public int getBlocksPerGroup() {
+        return blocksPerGroup;
+    }
+
+    public int getInodesPerGroup() {
+        return inodesPerGroup;
+    }
+
+    public int getGroupCount() {
+        return (int) ((totalBlocks + blocksPerGroup - 1) / blocksPerGroup);
+    }
+
+    public int getMountCount() {
+        return mountCount;
+    }
+
     public long getFreeBlocks() {
         return freeBlocks;
     }